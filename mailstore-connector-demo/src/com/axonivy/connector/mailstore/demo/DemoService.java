@@ -1,6 +1,7 @@
 package com.axonivy.connector.mailstore.demo;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -29,7 +30,7 @@ public class DemoService {
 	private static final String LOCALHOST_IMAP_AZURE_OAUTH2_AUTHENTICATION = "localhostImapAzureOauth2Authentication";
 
 	public static void handleMessages() throws MessagingException, IOException {
-		MessageIterator iterator = MailStoreService.messageIterator(LOCALHOST_IMAP, INBOX, null, false, MailStoreService.subjectMatches(".*test [0-9]+.*"), new MessageComparator());
+		MessageIterator iterator = MailStoreService.messageIterator(LOCALHOST_IMAP, INBOX, null, false, MailStoreService.subjectMatches(".*test [0-9]+.*"), MessageSort.bySentDate());
 
 		while (iterator.hasNext()) {
 			Message message = iterator.next();
@@ -47,7 +48,9 @@ public class DemoService {
 
 		// For demonstration, save the message to a case document.
 		IDocument doc = Ivy.wfCase().documents().add(UUID.randomUUID().toString() + ".eml");
-		doc.write().withContentFrom(MailStoreService.saveMessage(message));
+		try (InputStream content = MailStoreService.saveMessage(message)) {
+			doc.write().withContentFrom(content);
+		}
 
 		for (Part part : parts) {
 			LOG.info("  Part: Filename: {0} Description: {1} ContentType: {2} Disposition: {3} Content Class: {4}",
@@ -57,7 +60,7 @@ public class DemoService {
 	}
 	
 	public static void handleMessagesMultiDestinationFolder() throws MessagingException, IOException {
-		MessageIterator iterator = MailStoreService.messageIterator(LOCALHOST_IMAP, INBOX, true, MailStoreService.subjectMatches(".*test [0-9]+.*"), new MessageComparator(), Arrays.asList("Processed", "ErrorFolder"));
+		MessageIterator iterator = MailStoreService.messageIterator(LOCALHOST_IMAP, INBOX, true, MailStoreService.subjectMatches(".*test [0-9]+.*"), MessageSort.bySentDate(), Arrays.asList("Processed", "ErrorFolder"));
 		int runner = 0;
 		
 		while (iterator.hasNext()) {
@@ -74,7 +77,7 @@ public class DemoService {
 		String authProviderPath = MailStoreService.getVar(LOCALHOST_IMAP_BASIC_AUTHENTICATION, USER_PASSWORD_PROVIDER);
 		initAuthProvider(LOCALHOST_IMAP_BASIC_AUTHENTICATION, authProviderPath);
 		
-		MessageIterator iterator = MailStoreService.messageIterator(LOCALHOST_IMAP_BASIC_AUTHENTICATION, INBOX, null, false, MailStoreService.subjectMatches(".*"), new MessageComparator());
+		MessageIterator iterator = MailStoreService.messageIterator(LOCALHOST_IMAP_BASIC_AUTHENTICATION, INBOX, null, false, MailStoreService.subjectMatches(".*"), MessageSort.bySentDate());
 
 		while (iterator.hasNext()) {
 			Message message = iterator.next();
@@ -88,7 +91,7 @@ public class DemoService {
 		String authProviderPath = MailStoreService.getVar(LOCALHOST_IMAP_AZURE_OAUTH2_AUTHENTICATION, USER_PASSWORD_PROVIDER);
 		initAuthProvider(LOCALHOST_IMAP_AZURE_OAUTH2_AUTHENTICATION, authProviderPath);
 		
-		MessageIterator iterator = MailStoreService.messageIterator(LOCALHOST_IMAP_AZURE_OAUTH2_AUTHENTICATION, INBOX, null, false, MailStoreService.subjectMatches(".*"), new MessageComparator());
+		MessageIterator iterator = MailStoreService.messageIterator(LOCALHOST_IMAP_AZURE_OAUTH2_AUTHENTICATION, INBOX, null, false, MailStoreService.subjectMatches(".*"), MessageSort.bySentDate());
 
 		while (iterator.hasNext()) {
 			Message message = iterator.next();
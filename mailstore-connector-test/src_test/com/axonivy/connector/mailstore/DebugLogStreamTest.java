@@ -0,0 +1,54 @@
+package com.axonivy.connector.mailstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import ch.ivyteam.ivy.environment.IvyTest;
+
+/**
+ * Tests of the redaction of credentials in the protocol trace of {@link DebugLogStream}.
+ */
+@IvyTest
+public class DebugLogStreamTest {
+
+	@Test
+	public void testLogin() {
+		DebugLogStream stream = new DebugLogStream("test", 0);
+		assertThat(stream.redact("A1 LOGIN user@axonivy.com secret")).isEqualTo("A1 LOGIN user@axonivy.com ***");
+		assertThat(stream.redact("a1 login user secret")).isEqualTo("a1 login user ***");
+		assertThat(stream.redact("A1 LOGIN \"John Doe\" secret")).doesNotContain("secret");
+		assertThat(stream.redact("PASS secret")).isEqualTo("PASS ***");
+		assertThat(stream.redact("A1 OK LOGIN completed")).isEqualTo("A1 OK LOGIN completed");
+		assertThat(stream.redact("A2 SELECT INBOX")).isEqualTo("A2 SELECT INBOX");
+	}
+
+	@Test
+	public void testAuthenticateWithInitialResponse() {
+		DebugLogStream stream = new DebugLogStream("test", 0);
+		assertThat(stream.redact("A1 AUTHENTICATE XOAUTH2 dXNlcj1zZWNyZXQ=")).isEqualTo("A1 AUTHENTICATE XOAUTH2 ***");
+		assertThat(stream.redact("DEBUG IMAPStore: waiting for the server")).isEqualTo("DEBUG IMAPStore: waiting for the server");
+		assertThat(stream.redact("+ eyJzdGF0dXMiOiI0MDAifQ==")).isEqualTo("***");
+		assertThat(stream.redact("")).isEqualTo("***");
+		assertThat(stream.redact("A1 NO AUTHENTICATE failed")).isEqualTo("A1 NO AUTHENTICATE failed");
+		assertThat(stream.redact("A2 LIST \"\" *")).isEqualTo("A2 LIST \"\" *");
+	}
+
+	@Test
+	public void testAuthenticateWithContinuation() {
+		DebugLogStream stream = new DebugLogStream("test", 0);
+		assertThat(stream.redact("A1 AUTHENTICATE PLAIN")).isEqualTo("A1 AUTHENTICATE PLAIN");
+		assertThat(stream.redact("+ ")).isEqualTo("***");
+		assertThat(stream.redact("AHVzZXIAc2VjcmV0")).isEqualTo("***");
+		assertThat(stream.redact("A1 OK AUTHENTICATE completed")).isEqualTo("A1 OK AUTHENTICATE completed");
+		assertThat(stream.redact("A2 SELECT INBOX")).isEqualTo("A2 SELECT INBOX");
+	}
+
+	@Test
+	public void testPop3Auth() {
+		DebugLogStream stream = new DebugLogStream("test", 0);
+		assertThat(stream.redact("AUTH PLAIN AHVzZXIAc2VjcmV0")).isEqualTo("AUTH PLAIN ***");
+		assertThat(stream.redact("+OK Logged in.")).isEqualTo("+OK Logged in.");
+		assertThat(stream.redact("STAT")).isEqualTo("STAT");
+	}
+}
@@ -0,0 +1,141 @@
+package com.axonivy.connector.mailstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Properties;
+
+import javax.mail.Folder;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Store;
+import javax.mail.URLName;
+
+import org.junit.jupiter.api.Test;
+
+import ch.ivyteam.ivy.environment.IvyTest;
+
+/**
+ * Tests of the limit of leased stores and the generations of the {@link MailStorePool}.
+ */
+@IvyTest
+public class MailStorePoolTest {
+
+	@Test
+	public void testMaxLeased() throws Exception {
+		MailStorePool pool = MailStorePool.get();
+		String storeName = "pool-test-" + System.nanoTime();
+
+		Store first = pool.borrow(storeName, 2, 1, 50, 60_000, MailStorePoolTest::newStore);
+		assertThat(pool.statistics(storeName).getLeased()).isEqualTo(1);
+		assertThatThrownBy(() -> pool.borrow(storeName, 2, 1, 50, 60_000, MailStorePoolTest::newStore))
+			.isInstanceOf(MessagingException.class);
+
+		pool.release(storeName, first);
+		Store second = pool.borrow(storeName, 2, 1, 50, 60_000, MailStorePoolTest::newStore);
+		assertThat(pool.statistics(storeName).getLeased()).isEqualTo(1);
+		pool.release(storeName, second);
+		assertThat(pool.statistics(storeName).getLeased()).isZero();
+	}
+
+	@Test
+	public void testFailedConnectIsNotLeased() throws Exception {
+		MailStorePool pool = MailStorePool.get();
+		String storeName = "pool-test-" + System.nanoTime();
+
+		assertThatThrownBy(() -> pool.borrow(storeName, 2, 1, 50, 60_000, () -> {
+			throw new MessagingException("login failed");
+		})).hasMessage("login failed");
+		assertThat(pool.statistics(storeName).getLeased()).isZero();
+
+		Store store = pool.borrow(storeName, 2, 1, 50, 60_000, MailStorePoolTest::newStore);
+		pool.release(storeName, store);
+	}
+
+	@Test
+	public void testWaitForReturnedStore() throws Exception {
+		MailStorePool pool = MailStorePool.get();
+		String storeName = "pool-test-" + System.nanoTime();
+
+		Store first = pool.borrow(storeName, 2, 1, 50, 60_000, MailStorePoolTest::newStore);
+		Thread.ofVirtual().start(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			pool.release(storeName, first);
+		});
+		Store second = pool.borrow(storeName, 2, 1, 10_000, 60_000, MailStorePoolTest::newStore);
+		assertThat(second).isNotNull();
+		pool.release(storeName, second);
+	}
+
+	@Test
+	public void testStoreBorrowedBeforeClearIsClosed() throws Exception {
+		MailStorePool pool = MailStorePool.get();
+		String storeName = "pool-test-" + System.nanoTime();
+
+		Store old = pool.borrow(storeName, 2, 0, 50, 60_000, MailStorePoolTest::connectedStore);
+		pool.clear(storeName);
+		pool.release(storeName, old);
+		assertThat(old.isConnected()).isFalse();
+		assertThat(pool.statistics(storeName).getIdle()).isZero();
+
+		Store current = pool.borrow(storeName, 2, 0, 50, 60_000, MailStorePoolTest::connectedStore);
+		pool.release(storeName, current);
+		assertThat(current.isConnected()).isTrue();
+		assertThat(pool.statistics(storeName).getIdle()).isEqualTo(1);
+		pool.clear(storeName);
+	}
+
+	private static Store connectedStore() {
+		return new Store(Session.getInstance(new Properties()), null) {
+			private boolean connected = true;
+
+			@Override
+			public boolean isConnected() {
+				return connected;
+			}
+
+			@Override
+			public void close() {
+				connected = false;
+			}
+
+			@Override
+			public Folder getDefaultFolder() {
+				return null;
+			}
+
+			@Override
+			public Folder getFolder(String name) {
+				return null;
+			}
+
+			@Override
+			public Folder getFolder(URLName url) {
+				return null;
+			}
+		};
+	}
+
+	private static Store newStore() {
+		return new Store(Session.getInstance(new Properties()), null) {
+			@Override
+			public Folder getDefaultFolder() {
+				return null;
+			}
+
+			@Override
+			public Folder getFolder(String name) {
+				return null;
+			}
+
+			@Override
+			public Folder getFolder(URLName url) {
+				return null;
+			}
+		};
+	}
+}
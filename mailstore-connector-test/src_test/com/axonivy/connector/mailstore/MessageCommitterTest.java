@@ -0,0 +1,192 @@
+package com.axonivy.connector.mailstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.Flags;
+import javax.mail.Flags.Flag;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Store;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.jupiter.api.Test;
+
+import com.axonivy.connector.mailstore.enums.MailMovingMethod;
+
+import ch.ivyteam.ivy.environment.IvyTest;
+
+/**
+ * Tests of the package private {@link MessageCommitter} with folders in memory.
+ */
+@IvyTest
+public class MessageCommitterTest {
+
+	@Test
+	public void testFailedCopyKeepsMessages() throws Exception {
+		Store store = Session.getInstance(new Properties()).getStore("imap");
+		MemoryFolder src = new MemoryFolder(store, "INBOX", false);
+		MemoryFolder done = new MemoryFolder(store, "Done", false);
+		MemoryFolder broken = new MemoryFolder(store, "Broken", true);
+		List<Message> committed = new ArrayList<>();
+		MessageCommitter committer = new MessageCommitter(src, MailMovingMethod.COPY, true, 10, false,
+				messages -> committed.addAll(Arrays.asList(messages)));
+
+		Message copied = new MimeMessage((Session) null);
+		Message notCopied = new MimeMessage((Session) null);
+		Message notMoved = new MimeMessage((Session) null);
+		committer.handled(copied, done);
+		committer.handled(notCopied, broken);
+		committer.handled(notMoved, null);
+
+		assertThatThrownBy(committer::flush).isInstanceOf(MessagingException.class);
+
+		assertThat(done.appended).containsExactly(copied);
+		assertThat(copied.isSet(Flag.DELETED)).isTrue();
+		assertThat(notMoved.isSet(Flag.DELETED)).isTrue();
+		assertThat(notCopied.isSet(Flag.DELETED)).isFalse();
+		assertThat(committed).containsExactly(copied, notMoved);
+
+		// the folder is not expunged after a failed commit
+		assertThat(committer.expungeFlagged()).isFalse();
+	}
+
+	@Test
+	public void testExpungeOnlyWithFlaggedMessages() throws Exception {
+		Store store = Session.getInstance(new Properties()).getStore("imap");
+		MemoryFolder src = new MemoryFolder(store, "INBOX", false);
+		MessageCommitter committer = new MessageCommitter(src, MailMovingMethod.MOVE, true, 10, false, messages -> {});
+
+		assertThat(committer.expungeFlagged()).isFalse();
+
+		committer.handled(new MimeMessage((Session) null), null);
+		committer.flush();
+
+		// without UIDPLUS, the flagged messages can only be expunged with the folder
+		assertThat(committer.expungeFlagged()).isTrue();
+		assertThat(committer.expungeFlagged()).isFalse();
+	}
+
+	/**
+	 * A folder, which only records appended messages.
+	 */
+	private static class MemoryFolder extends Folder {
+		private final String name;
+		private final boolean failing;
+		private final List<Message> appended = new ArrayList<>();
+
+		private MemoryFolder(Store store, String name, boolean failing) {
+			super(store);
+			this.name = name;
+			this.failing = failing;
+		}
+
+		@Override
+		public void appendMessages(Message[] msgs) throws MessagingException {
+			if(failing) {
+				throw new MessagingException("Folder " + name + " is full.");
+			}
+			appended.addAll(Arrays.asList(msgs));
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String getFullName() {
+			return name;
+		}
+
+		@Override
+		public Folder getParent() {
+			return null;
+		}
+
+		@Override
+		public boolean exists() {
+			return true;
+		}
+
+		@Override
+		public Folder[] list(String pattern) {
+			return new Folder[0];
+		}
+
+		@Override
+		public char getSeparator() {
+			return '/';
+		}
+
+		@Override
+		public int getType() {
+			return HOLDS_MESSAGES;
+		}
+
+		@Override
+		public boolean create(int type) {
+			return false;
+		}
+
+		@Override
+		public boolean hasNewMessages() {
+			return false;
+		}
+
+		@Override
+		public Folder getFolder(String folderName) {
+			return null;
+		}
+
+		@Override
+		public boolean delete(boolean recurse) {
+			return false;
+		}
+
+		@Override
+		public boolean renameTo(Folder folder) {
+			return false;
+		}
+
+		@Override
+		public void open(int mode) {
+		}
+
+		@Override
+		public void close(boolean expunge) {
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public Flags getPermanentFlags() {
+			return new Flags();
+		}
+
+		@Override
+		public int getMessageCount() {
+			return 0;
+		}
+
+		@Override
+		public Message getMessage(int msgnum) {
+			return null;
+		}
+
+		@Override
+		public Message[] expunge() {
+			return new Message[0];
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.axonivy.connector.mailstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import ch.ivyteam.ivy.environment.IvyTest;
+
+@IvyTest
+public class MessageFilterTest {
+	private static final String TEXT = " \t\r\n";
+	private static final String ADDRESS = " \t\r\n<>\"(),;:";
+
+	@Test
+	public void testLiteral() {
+		assertThat(MessageFilter.requiredLiteral("Invoice", TEXT)).isEqualTo("Invoice");
+		assertThat(MessageFilter.requiredLiteral(".*Invoice.*", TEXT)).isEqualTo("Invoice");
+		assertThat(MessageFilter.requiredLiteral("Your Invoice", TEXT)).isEqualTo("Invoice");
+		assertThat(MessageFilter.requiredLiteral("Hi Bo", TEXT)).isNull();
+	}
+
+	@Test
+	public void testAnchored() {
+		assertThat(MessageFilter.requiredLiteral("^Invoice \\d+$", TEXT)).isEqualTo("Invoice");
+		assertThat(MessageFilter.requiredLiteral("\\AOrder\\z", TEXT)).isEqualTo("Order");
+		assertThat(MessageFilter.requiredLiteral("\\bdebit\\b", TEXT)).isEqualTo("debit");
+	}
+
+	@Test
+	public void testAlternationAndGroups() {
+		assertThat(MessageFilter.requiredLiteral("Invoice|Bill", TEXT)).isNull();
+		assertThat(MessageFilter.requiredLiteral("(Invoice) \\d+", TEXT)).isNull();
+		assertThat(MessageFilter.requiredLiteral("(?i)invoice", TEXT)).isNull();
+	}
+
+	@Test
+	public void testOptional() {
+		assertThat(MessageFilter.requiredLiteral("Invoices?", TEXT)).isEqualTo("Invoice");
+		assertThat(MessageFilter.requiredLiteral("colou?r", TEXT)).isEqualTo("colo");
+		assertThat(MessageFilter.requiredLiteral("In*voice", TEXT)).isEqualTo("voice");
+		assertThat(MessageFilter.requiredLiteral("abcx{0,3}", TEXT)).isEqualTo("abc");
+		assertThat(MessageFilter.requiredLiteral("Invoice{2}", TEXT)).isEqualTo("Invoice");
+		assertThat(MessageFilter.requiredLiteral("Orders+", TEXT)).isEqualTo("Orders");
+		assertThat(MessageFilter.requiredLiteral("Ordersx*?", TEXT)).isEqualTo("Orders");
+	}
+
+	@Test
+	public void testEscaped() {
+		assertThat(MessageFilter.requiredLiteral("Order\\.Nr", TEXT)).isEqualTo("Order.Nr");
+		assertThat(MessageFilter.requiredLiteral("\\[JIRA\\] ABC-\\d+", TEXT)).isEqualTo("[JIRA]");
+		assertThat(MessageFilter.requiredLiteral("\\QInvoice\\E", TEXT)).isNull();
+		assertThat(MessageFilter.requiredLiteral("\\x41BC", TEXT)).isNull();
+		assertThat(MessageFilter.requiredLiteral("Invoice\\", TEXT)).isNull();
+		assertThat(MessageFilter.requiredLiteral("[a-z]+@axonivy\\.com", ADDRESS)).isEqualTo("@axonivy.com");
+		assertThat(MessageFilter.requiredLiteral("<info@axonivy\\.com>", ADDRESS)).isEqualTo("info@axonivy.com");
+	}
+
+	@Test
+	public void testLiteralIsContainedInMatches() {
+		String[][] cases = {
+				{"^Invoice \\d+$", "Invoice 42"},
+				{"colou?r", "color"},
+				{"In*voice", "Ivoice"},
+				{"Orders+", "Ordersss"},
+				{"\\[JIRA\\] ABC-\\d+", "[JIRA] ABC-1"},
+		};
+		for (String[] example : cases) {
+			assertThat(example[1]).matches(example[0]).contains(MessageFilter.requiredLiteral(example[0], TEXT));
+		}
+	}
+}
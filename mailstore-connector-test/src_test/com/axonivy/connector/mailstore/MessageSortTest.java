@@ -0,0 +1,91 @@
+package com.axonivy.connector.mailstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Random;
+
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.jupiter.api.Test;
+
+import ch.ivyteam.ivy.environment.IvyTest;
+
+/**
+ * Tests of the package private selection and keys of {@link MessageSort}.
+ */
+@IvyTest
+public class MessageSortTest {
+
+	@Test
+	public void testFirstMatchesFullSort() {
+		Random random = new Random(42);
+		Integer[] elements = random.ints(500, 0, 100).boxed().toArray(Integer[]::new);
+		for (Comparator<Integer> comparator : Arrays.<Comparator<Integer>>asList(Comparator.naturalOrder(), Comparator.reverseOrder())) {
+			Integer[] sorted = elements.clone();
+			Arrays.sort(sorted, comparator);
+			for (int limit : new int[] { 1, 2, 17, 100, 499, 500, 1000 }) {
+				assertThat(MessageSort.first(elements, comparator, limit))
+					.containsExactly(Arrays.copyOf(sorted, Math.min(limit, sorted.length)));
+			}
+		}
+	}
+
+	@Test
+	public void testFirstWithoutElements() {
+		Integer[] elements = { 3, 1, 2 };
+		assertThat(MessageSort.first(elements, Comparator.naturalOrder(), 0)).isEmpty();
+		assertThat(MessageSort.first(new Integer[0], Comparator.<Integer>naturalOrder(), 5)).isEmpty();
+		// the input is not changed
+		assertThat(elements).containsExactly(3, 1, 2);
+	}
+
+	@Test
+	public void testBaseSubject() {
+		assertThat(MessageSort.baseSubject("Invoice 42")).isEqualTo("INVOICE 42");
+		assertThat(MessageSort.baseSubject("Re: invoice  42")).isEqualTo("INVOICE 42");
+		assertThat(MessageSort.baseSubject("RE: Fwd: Re[2]: Invoice 42")).isEqualTo("INVOICE 42");
+		assertThat(MessageSort.baseSubject("[axonivy] Re: Invoice 42")).isEqualTo("INVOICE 42");
+		assertThat(MessageSort.baseSubject("Invoice 42 (fwd)")).isEqualTo("INVOICE 42");
+		assertThat(MessageSort.baseSubject("[Fwd: Re: Invoice 42]")).isEqualTo("INVOICE 42");
+		assertThat(MessageSort.baseSubject("[axonivy]")).isEqualTo("[AXONIVY]");
+		assertThat(MessageSort.baseSubject("Reminder: Rechnung")).isEqualTo("REMINDER: RECHNUNG");
+		assertThat(MessageSort.baseSubject("re: übersicht")).isEqualTo("üBERSICHT");
+		assertThat(MessageSort.baseSubject(null)).isEmpty();
+	}
+
+	@Test
+	public void testFromMailboxIgnoresAsciiCase() throws Exception {
+		assertThat(MessageSort.fromMailbox(from("Bo.Smith@axonivy.com"))).isEqualTo("BO.SMITH");
+		// i;ascii-casemap compares upper case letters: '_' comes after the letters
+		assertThat(MessageSort.fromMailbox(from("a_b@axonivy.com")))
+			.isGreaterThan(MessageSort.fromMailbox(from("ab@axonivy.com")));
+		assertThat(MessageSort.fromMailbox(new MimeMessage((Session) null))).isNull();
+	}
+
+	@Test
+	public void testSentDateFallsBackToReceivedDate() throws Exception {
+		Date received = new Date(1_000_000L);
+		MimeMessage message = new MimeMessage((Session) null) {
+			@Override
+			public Date getReceivedDate() {
+				return received;
+			}
+		};
+		assertThat(MessageSort.sentDate(message)).isEqualTo(received);
+
+		Date sent = new Date(2_000_000L);
+		message.setSentDate(sent);
+		assertThat(MessageSort.sentDate(message)).isEqualTo(sent);
+	}
+
+	private static MimeMessage from(String address) throws Exception {
+		MimeMessage message = new MimeMessage((Session) null);
+		message.setFrom(new InternetAddress(address));
+		return message;
+	}
+}
@@ -0,0 +1,75 @@
+package com.axonivy.connector.mailstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import ch.ivyteam.ivy.environment.IvyTest;
+
+/**
+ * Tests of the switch from memory to a temporary file of {@link SpillOutputStream}.
+ */
+@IvyTest
+public class SpillOutputStreamTest {
+
+	@Test
+	public void testBelowThreshold() throws Exception {
+		SpillOutputStream out = new SpillOutputStream(10);
+		out.write(bytes("01234"));
+		out.write('5');
+		out.write(bytes("6789"));
+
+		try (InputStream in = out.toInputStream()) {
+			assertThat(in).isInstanceOf(ByteArrayInputStream.class);
+			assertThat(in.readAllBytes()).isEqualTo(bytes("0123456789"));
+		}
+	}
+
+	@Test
+	public void testCrossingThreshold() throws Exception {
+		SpillOutputStream out = new SpillOutputStream(10);
+		out.write(bytes("012345678"));
+		out.write(bytes("9ab"), 0, 2);
+
+		try (InputStream in = out.toInputStream()) {
+			assertThat(in).isNotInstanceOf(ByteArrayInputStream.class);
+			assertThat(in.readAllBytes()).isEqualTo(bytes("0123456789a"));
+		}
+	}
+
+	@Test
+	public void testCrossingThresholdWithSingleByte() throws Exception {
+		SpillOutputStream out = new SpillOutputStream(3);
+		for (byte b : bytes("abcdef")) {
+			out.write(b);
+		}
+
+		try (InputStream in = out.toInputStream()) {
+			assertThat(in).isNotInstanceOf(ByteArrayInputStream.class);
+			assertThat(in.readAllBytes()).isEqualTo(bytes("abcdef"));
+		}
+	}
+
+	@Test
+	public void testZeroThreshold() throws Exception {
+		SpillOutputStream out = new SpillOutputStream(0);
+		try (InputStream in = out.toInputStream()) {
+			assertThat(in.readAllBytes()).isEmpty();
+		}
+
+		out = new SpillOutputStream(0);
+		out.write('x');
+		try (InputStream in = out.toInputStream()) {
+			assertThat(in).isNotInstanceOf(ByteArrayInputStream.class);
+			assertThat(in.readAllBytes()).isEqualTo(bytes("x"));
+		}
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,117 @@
+package com.axonivy.connector.mailstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.MessagingException;
+import javax.mail.Part;
+import javax.mail.internet.MimeBodyPart;
+
+import org.junit.jupiter.api.Test;
+
+import ch.ivyteam.ivy.environment.IvyTest;
+
+/**
+ * Tests of the limit and the delimiter of {@link TextPartReader}.
+ */
+@IvyTest
+public class TextPartReaderTest {
+
+	@Test
+	public void testDelimiter() throws Exception {
+		assertThat(read(List.of(text("abc"), text("def"), text("ghi")), "--", Long.MAX_VALUE)).isEqualTo("abc--def--ghi");
+		assertThat(read(List.of(text("abc"), text("def")), null, Long.MAX_VALUE)).isEqualTo("abcdef");
+		assertThat(read(List.of(text("abc")), "--", Long.MAX_VALUE)).isEqualTo("abc");
+		assertThat(read(List.of(), "--", Long.MAX_VALUE)).isEmpty();
+		assertThat(read(List.of(text(""), text("def")), "--", Long.MAX_VALUE)).isEqualTo("--def");
+	}
+
+	@Test
+	public void testMaxChars() throws Exception {
+		List<Part> parts = List.of(text("abc"), text("def"), text("ghi"));
+		String full = "abc|||def|||ghi";
+		for (int maxChars = 0; maxChars <= full.length() + 1; maxChars++) {
+			assertThat(read(parts, "|||", maxChars))
+				.as("maxChars %d", maxChars)
+				.isEqualTo(full.substring(0, Math.min(maxChars, full.length())));
+		}
+	}
+
+	@Test
+	public void testCharset() throws Exception {
+		assertThat(read(List.of(text("Grüße", "ISO-8859-1"), text("Ünïcödé", "UTF-8")), " ", Long.MAX_VALUE)).isEqualTo("Grüße Ünïcödé");
+	}
+
+	@Test
+	public void testRestIsNotRead() throws Exception {
+		TrackedPart first = new TrackedPart("abc");
+		TrackedPart second = new TrackedPart("def");
+		TrackedPart third = new TrackedPart("ghi");
+
+		assertThat(read(List.of(first, second, third), "\n", 5)).isEqualTo("abc\nd");
+		assertThat(first.opened).isTrue();
+		assertThat(first.closed).isTrue();
+		assertThat(second.opened).isTrue();
+		assertThat(second.closed).isTrue();
+		assertThat(third.opened).isFalse();
+	}
+
+	/**
+	 * Read character by character, so every boundary between parts and delimiters is crossed
+	 * by a separate call.
+	 */
+	private static String read(List<Part> parts, String delimiter, long maxChars) throws IOException {
+		StringBuilder text = new StringBuilder();
+		try (Reader reader = new TextPartReader(new ArrayList<>(parts).iterator(), delimiter, maxChars)) {
+			char[] buffer = new char[1];
+			int read;
+			while((read = reader.read(buffer)) >= 0) {
+				text.append(buffer, 0, read);
+			}
+		}
+		return text.toString();
+	}
+
+	private static MimeBodyPart text(String text) throws MessagingException {
+		return text(text, "UTF-8");
+	}
+
+	private static MimeBodyPart text(String text, String charset) throws MessagingException {
+		MimeBodyPart part = new MimeBodyPart();
+		setPlainText(part, text, charset);
+		return part;
+	}
+
+	private static void setPlainText(MimeBodyPart part, String text, String charset) throws MessagingException {
+		part.setText(text, charset);
+		// like in a parsed message, the reader takes the charset from the header
+		part.setHeader("Content-Type", "text/plain; charset=" + charset);
+	}
+
+	private static class TrackedPart extends MimeBodyPart {
+		private boolean opened;
+		private boolean closed;
+
+		private TrackedPart(String text) throws MessagingException {
+			setPlainText(this, text, "UTF-8");
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException, MessagingException {
+			opened = true;
+			return new FilterInputStream(super.getInputStream()) {
+				@Override
+				public void close() throws IOException {
+					closed = true;
+					super.close();
+				}
+			};
+		}
+	}
+}
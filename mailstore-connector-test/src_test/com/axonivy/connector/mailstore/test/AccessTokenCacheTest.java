@@ -0,0 +1,40 @@
+package com.axonivy.connector.mailstore.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.axonivy.connector.mailstore.provider.oauth.AccessTokenCache;
+import com.axonivy.connector.mailstore.provider.oauth.AccessTokenCache.AccessToken;
+
+import ch.ivyteam.ivy.environment.IvyTest;
+
+@IvyTest
+public class AccessTokenCacheTest {
+
+	@Test
+	public void testInvalidate() {
+		AtomicInteger requests = new AtomicInteger();
+		AccessTokenCache cache = AccessTokenCache.get();
+		String key = "invalidate-" + System.nanoTime();
+
+		assertThat(cache.getToken(key, () -> () -> new AccessToken("token" + requests.incrementAndGet(), 3600))).isEqualTo("token1");
+		assertThat(cache.getToken(key, () -> () -> new AccessToken("token" + requests.incrementAndGet(), 3600))).isEqualTo("token1");
+
+		cache.invalidate(key);
+		assertThat(cache.getToken(key, () -> () -> new AccessToken("token" + requests.incrementAndGet(), 3600))).isEqualTo("token2");
+	}
+
+	@Test
+	public void testTokenWithoutLifetimeIsNotCached() {
+		AtomicInteger requests = new AtomicInteger();
+		AccessTokenCache cache = AccessTokenCache.get();
+		String key = "nolifetime-" + System.nanoTime();
+
+		assertThat(cache.getToken(key, () -> () -> new AccessToken("token" + requests.incrementAndGet(), 0))).isEqualTo("token1");
+		assertThat(cache.getToken(key, () -> () -> new AccessToken("token" + requests.incrementAndGet(), 0))).isEqualTo("token2");
+		assertThat(requests).hasValue(2);
+	}
+}
@@ -0,0 +1,49 @@
+package com.axonivy.connector.mailstore.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.axonivy.connector.mailstore.checkpoint.Checkpoint;
+import com.axonivy.connector.mailstore.checkpoint.FileCheckpointStore;
+
+import ch.ivyteam.ivy.environment.IvyTest;
+
+@IvyTest
+public class FileCheckpointStoreTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void testSaveAndLoad() {
+		FileCheckpointStore store = new FileCheckpointStore(directory.resolve("checkpoints"));
+
+		assertThat(store.load("localhost-imap", "INBOX")).isNull();
+
+		store.save("localhost-imap", "INBOX", new Checkpoint(1234, 17));
+		store.save("localhost-imap", "INBOX/Sub Folder", new Checkpoint(99, 3));
+		store.save("localhost-imap", "INBOX", new Checkpoint(1234, 42));
+
+		Checkpoint inbox = new FileCheckpointStore(directory.resolve("checkpoints")).load("localhost-imap", "INBOX");
+		assertThat(inbox.getUidValidity()).isEqualTo(1234);
+		assertThat(inbox.getLastUid()).isEqualTo(42);
+
+		Checkpoint sub = store.load("localhost-imap", "INBOX/Sub Folder");
+		assertThat(sub.getUidValidity()).isEqualTo(99);
+		assertThat(sub.getLastUid()).isEqualTo(3);
+	}
+
+	@Test
+	public void testLongFolderName() {
+		FileCheckpointStore store = new FileCheckpointStore(directory.resolve("checkpoints"));
+		String folderName = "INBOX/" + "Very Long Folder Name/".repeat(20) + "Invoices";
+
+		store.save("localhost-imap", folderName, new Checkpoint(7, 11));
+
+		assertThat(store.load("localhost-imap", folderName).getLastUid()).isEqualTo(11);
+	}
+}
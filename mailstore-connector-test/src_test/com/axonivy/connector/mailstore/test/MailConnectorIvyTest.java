@@ -3,6 +3,10 @@ package com.axonivy.connector.mailstore.test;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collection;
 import java.util.List;
 
@@ -11,6 +15,7 @@ import javax.mail.Part;
 
 import org.junit.jupiter.api.Test;
 
+import com.axonivy.connector.mailstore.FileMessage;
 import com.axonivy.connector.mailstore.MailStoreService;
 import com.axonivy.connector.mailstore.MessageService;
 
@@ -219,6 +224,27 @@ public class MailConnectorIvyTest{
 		assertThat(MessageService.getBinaryContent(parts.get(1))).hasSize(4743);
 	}
 
+	@Test
+	public void testLoadFromFile() throws Exception {
+		Path file = Files.createTempFile("mail-", ".eml");
+		try (InputStream stream = MailConnectorIvyTest.class.getResourceAsStream("testmails/mail-with-inline-and-attachments.eml")) {
+			Files.copy(stream, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		try {
+			try (FileMessage message = MailStoreService.loadMessage(file)) {
+				List<Part> parts = MessageService.getAllParts(message, false, MessageService.isImage("*").and(MessageService.isAttachment()));
+				assertThat(parts).hasSize(2);
+				assertThat(MessageService.getBinaryContent(parts.get(0))).hasSize(6964);
+			}
+			try (FileChannel channel = FileChannel.open(file); FileMessage message = MailStoreService.loadMessage(channel)) {
+				assertThat(MessageService.getAllPlainTexts(message, ",", false)).contains("Test Mail");
+			}
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
 	private List<Message> allTestMessages() {
 		return List.of(
 				readMessage("testmails/mail-basic.eml"),
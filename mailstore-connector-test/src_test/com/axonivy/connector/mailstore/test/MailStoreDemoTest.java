@@ -1,5 +1,7 @@
 package com.axonivy.connector.mailstore.test;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
@@ -12,6 +14,12 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.Store;
+import javax.mail.internet.MimeMessage;
+
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -21,6 +29,11 @@ import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
 
+import com.axonivy.connector.mailstore.MailStoreService;
+import com.axonivy.connector.mailstore.MailStoreService.MessageIterator;
+import com.axonivy.connector.mailstore.MessageIteratorOptions;
+import com.axonivy.connector.mailstore.MessageSort;
+import com.axonivy.connector.mailstore.checkpoint.FileCheckpointStore;
 import com.github.dockerjava.api.model.Bind;
 import com.github.dockerjava.api.model.ExposedPort;
 import com.github.dockerjava.api.model.HostConfig;
@@ -39,6 +52,8 @@ import ch.ivyteam.util.WaitUtil;
 @IvyProcessTest
 class MailStoreDemoTest {
 
+	private static final String STORE = "localhostImap";
+
 	private List<String> logs = new ArrayList<>();
 
 	private static final Path ssl = Path.of("../mailstore-connector-demo/docker/config/ssl/").toAbsolutePath();
@@ -93,8 +108,108 @@ class MailStoreDemoTest {
 		Ivy.log().info(result);
 	}
 
+	@Test
+	void limitedRunKeepsCheckpoint(AppFixture fixture, @TempDir Path checkpoints) throws Exception {
+		String userName = "user2@test.local";
+		finishMailserverUserSetup(userName);
+		configureDemo(fixture, userName);
+
+		// UIDs ascend, subjects descend: sorting by subject hands out the highest UIDs first
+		appendMessages("e", "d", "c", "b", "a");
+
+		MessageIteratorOptions options = MessageIteratorOptions.create()
+				.withCheckpointStore(new FileCheckpointStore(checkpoints))
+				.withComparator(MessageSort.bySubject());
+		assertThat(handleSubjects(options.withMaxMessages(2))).containsExactly("a", "b");
+
+		// the messages cut by the limit are still after the checkpoint
+		assertThat(handleSubjects(options.withMaxMessages(0))).containsExactly("a", "b", "c", "d", "e");
+	}
+
+	@Test
+	void leasesDoNotReachDestination(AppFixture fixture) throws Exception {
+		String userName = "user3@test.local";
+		finishMailserverUserSetup(userName);
+		configureDemo(fixture, userName);
+		createFolder("Archive");
+
+		appendMessages("a");
+		MessageIteratorOptions moving = MessageIteratorOptions.create()
+				.withLeaseTime(Duration.ofMinutes(5))
+				.withDstFolderNames("Archive")
+				.withDelete(true);
+		assertThat(handleSubjects(moving)).containsExactly("a");
+		assertThat(userFlags("Archive")).noneMatch(flag -> flag.startsWith("IvyLease."));
+
+		// handled messages which stay in the folder are not claimed again
+		appendMessages("b");
+		MessageIteratorOptions keeping = MessageIteratorOptions.create()
+				.withLeaseTime(Duration.ofMinutes(5))
+				.withDelete(false);
+		assertThat(handleSubjects(keeping)).containsExactly("b");
+		assertThat(handleSubjects(keeping)).isEmpty();
+		assertThat(userFlags("INBOX")).noneMatch(flag -> flag.startsWith("IvyLease."));
+	}
+
+	private List<String> handleSubjects(MessageIteratorOptions options) throws Exception {
+		List<String> subjects = new ArrayList<>();
+		try (MessageIterator iterator = MailStoreService.messageIterator(STORE, "INBOX", options)) {
+			while (iterator.hasNext()) {
+				subjects.add(iterator.next().getSubject());
+				iterator.handledMessage(true);
+			}
+		}
+		return subjects;
+	}
+
+	private void appendMessages(String... subjects) throws Exception {
+		Store store = MailStoreService.openStore(STORE);
+		try {
+			Folder inbox = store.getFolder("INBOX");
+			for (String subject : subjects) {
+				MimeMessage message = new MimeMessage((Session) null);
+				message.setSubject(subject);
+				message.setText(subject);
+				inbox.appendMessages(new Message[] { message });
+			}
+		} finally {
+			MailStoreService.releaseStore(STORE, store);
+		}
+	}
+
+	private void createFolder(String folderName) throws Exception {
+		Store store = MailStoreService.openStore(STORE);
+		try {
+			Folder folder = store.getFolder(folderName);
+			if (!folder.exists()) {
+				folder.create(Folder.HOLDS_MESSAGES);
+			}
+		} finally {
+			MailStoreService.releaseStore(STORE, store);
+		}
+	}
+
+	private List<String> userFlags(String folderName) throws Exception {
+		Store store = MailStoreService.openStore(STORE);
+		try {
+			Folder folder = store.getFolder(folderName);
+			folder.open(Folder.READ_ONLY);
+			try {
+				List<String> flags = new ArrayList<>();
+				for (Message message : folder.getMessages()) {
+					flags.addAll(List.of(message.getFlags().getUserFlags()));
+				}
+				return flags;
+			} finally {
+				folder.close(false);
+			}
+		} finally {
+			MailStoreService.releaseStore(STORE, store);
+		}
+	}
+
 	private void configureDemo(AppFixture fixture, String userName) {
-		String imap = "mailstoreConnector.localhostImap";
+		String imap = "mailstoreConnector." + STORE;
 		fixture.var(imap + ".port", "993");
 		fixture.var(imap + ".user", userName);
 		fixture.var(imap + ".password", "password123");
@@ -0,0 +1,63 @@
+package com.axonivy.connector.mailstore.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import javax.mail.Message;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.axonivy.connector.mailstore.MailStoreService;
+import com.axonivy.connector.mailstore.cache.MessageCache;
+
+import ch.ivyteam.ivy.environment.IvyTest;
+
+@IvyTest
+public class MessageCacheTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void testLongFolderName() throws Exception {
+		MessageCache cache = new MessageCache(directory, 0, null);
+		String folderName = "INBOX/" + "Very Long Folder Name/".repeat(20) + "Invoices";
+
+		Path file = cache.put("localhost-imap", folderName, 7, 11, readMessage("testmails/mail-basic.eml"));
+
+		assertThat(file.getFileName().toString()).hasSizeLessThan(100);
+		assertThat(cache.get("localhost-imap", folderName, 7, 11)).isEqualTo(file);
+		assertThat(cache.get("localhost-imap", folderName, 8, 11)).isNull();
+	}
+
+	@Test
+	public void testStructure() throws Exception {
+		MessageCache cache = new MessageCache(directory, 0, Duration.ofDays(1));
+		byte[] structure = {1, 2, 3};
+
+		assertThat(cache.getStructure("localhost-imap", "INBOX", 7, 11)).isNull();
+
+		cache.putStructure("localhost-imap", "INBOX", 7, 11, structure);
+		assertThat(cache.getStructure("localhost-imap", "INBOX", 7, 11)).isEqualTo(structure);
+		assertThat(cache.get("localhost-imap", "INBOX", 7, 11)).isNull();
+
+		cache.put("localhost-imap", "INBOX", 7, 11, readMessage("testmails/mail-basic.eml"));
+		cache.remove("localhost-imap", "INBOX", 7, 11);
+		assertThat(cache.getStructure("localhost-imap", "INBOX", 7, 11)).isNull();
+		assertThat(cache.get("localhost-imap", "INBOX", 7, 11)).isNull();
+		try (var files = Files.list(directory)) {
+			assertThat(files).isEmpty();
+		}
+	}
+
+	private Message readMessage(String path) {
+		InputStream stream = MessageCacheTest.class.getResourceAsStream(path);
+		assertThat(stream).isNotNull();
+		return MailStoreService.loadMessage(stream);
+	}
+}
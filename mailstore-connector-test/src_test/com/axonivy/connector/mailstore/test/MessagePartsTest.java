@@ -0,0 +1,132 @@
+package com.axonivy.connector.mailstore.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import javax.mail.Message;
+import javax.mail.Multipart;
+import javax.mail.Part;
+
+import org.junit.jupiter.api.Test;
+
+import com.axonivy.connector.mailstore.MailStoreService;
+import com.axonivy.connector.mailstore.MessageService;
+import com.axonivy.connector.mailstore.PartDescriptor;
+import com.axonivy.connector.mailstore.PartPredicate;
+
+import ch.ivyteam.ivy.environment.IvyTest;
+
+/**
+ * Compares the lazy part stream and the part structure with a complete walk over all parts.
+ */
+@IvyTest
+public class MessagePartsTest {
+	private static final String[] MAILS = {
+			"testmails/mail-basic.eml",
+			"testmails/mail-simple.eml",
+			"testmails/mail-with-attachment.eml",
+			"testmails/mail-with-inline-and-attachments.eml",
+			"testmails/mail-with-attached-email-and-inline-and-attachments.eml",
+			"testmails/mail-with-multiple-recipients.eml"
+	};
+
+	@Test
+	public void testStreamPartsMatchesCompleteWalk() throws Exception {
+		for (String mail : MAILS) {
+			for (boolean includeSubMessages : new boolean[] { false, true }) {
+				List<Part> expected = new ArrayList<>();
+				collectParts(expected, readMessage(mail), true, includeSubMessages);
+
+				Message message = readMessage(mail);
+				assertThat(describe(MessageService.streamParts(message, includeSubMessages).toList()))
+					.as("%s, sub messages: %s", mail, includeSubMessages)
+					.isEqualTo(describe(expected));
+				assertThat(describe(MessageService.getAllParts(message, includeSubMessages, null)))
+					.as("%s, sub messages: %s", mail, includeSubMessages)
+					.isEqualTo(describe(expected));
+				assertThat(PartDescriptor.of(message).stream(includeSubMessages)
+						.map(d -> d.getMimeType() + "|" + d.getDisposition() + "|" + d.getFileName()).toList())
+					.as("%s, sub messages: %s", mail, includeSubMessages)
+					.isEqualTo(describe(expected));
+			}
+		}
+	}
+
+	@Test
+	public void testPredicatesOnStructure() throws Exception {
+		Map<String, Predicate<Part>> predicates = Map.of(
+				"attachment", MessageService.isAttachment(),
+				"inline", MessageService.isInline(),
+				"text", MessageService.isText(null),
+				"image", MessageService.isImage(null),
+				"pdf", MessageService.isMimeType("application/pdf"),
+				"pdf name", MessageService.filenameMatches(".*\\.pdf"),
+				"attached image", MessageService.isAttachment().and(MessageService.isImage(null)),
+				"inline or plain", MessageService.isInline().or(MessageService.isText("plain")),
+				"not attachment", MessageService.isAttachment().negate());
+
+		for (String mail : MAILS) {
+			for (boolean includeSubMessages : new boolean[] { false, true }) {
+				List<Part> parts = new ArrayList<>();
+				collectParts(parts, readMessage(mail), true, includeSubMessages);
+				Message message = readMessage(mail);
+				List<PartDescriptor> descriptors = PartDescriptor.of(message).stream(includeSubMessages).toList();
+
+				for (Map.Entry<String, Predicate<Part>> entry : predicates.entrySet()) {
+					Predicate<Part> predicate = entry.getValue();
+					Predicate<PartDescriptor> descriptorPredicate = PartPredicate.descriptorPredicateOf(predicate);
+					String description = String.format("%s, %s, sub messages: %s", entry.getKey(), mail, includeSubMessages);
+
+					assertThat(descriptorPredicate).as(description).isNotNull();
+					assertThat(descriptors.stream().filter(descriptorPredicate).count())
+						.as(description)
+						.isEqualTo(parts.stream().filter(predicate).count());
+					assertThat(MessageService.anyPartMatches(message, includeSubMessages, predicate))
+						.as(description)
+						.isEqualTo(parts.stream().anyMatch(predicate));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collect all parts like the former eager implementation of <code>MessageService.getAllParts</code>.
+	 */
+	private static void collectParts(List<Part> parts, Part part, boolean root, boolean includeSubMessages) throws Exception {
+		if(!includeSubMessages && !root && part instanceof Message) {
+			return;
+		}
+		parts.add(part);
+		if(part.isMimeType("multipart/*")) {
+			Multipart multipart = (Multipart) part.getContent();
+			for (int i = 0; i < multipart.getCount(); i++) {
+				collectParts(parts, multipart.getBodyPart(i), false, includeSubMessages);
+			}
+		}
+		else if(part.isMimeType("message/*")) {
+			Object content = part.getContent();
+			if(content instanceof Message) {
+				collectParts(parts, (Message) content, false, includeSubMessages);
+			}
+		}
+	}
+
+	private static List<String> describe(List<Part> parts) throws Exception {
+		List<String> descriptions = new ArrayList<>();
+		for (Part part : parts) {
+			descriptions.add(part.getContentType().split(";")[0].trim().toLowerCase() + "|" + part.getDisposition() + "|" + part.getFileName());
+		}
+		return descriptions;
+	}
+
+	private Message readMessage(String path) {
+		InputStream stream = MessagePartsTest.class.getResourceAsStream(path);
+		assertThat(stream).isNotNull();
+		return MailStoreService.loadMessage(stream);
+	}
+}
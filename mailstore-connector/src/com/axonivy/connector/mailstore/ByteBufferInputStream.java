@@ -0,0 +1,83 @@
+package com.axonivy.connector.mailstore;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.mail.internet.SharedInputStream;
+
+/**
+ * Reads a {@link ByteBuffer}, e.g. a memory-mapped file, as a {@link SharedInputStream}.
+ *
+ * JavaMail creates the content of a message and its parts with {@link #newStream(long, long)},
+ * which only creates a view of the same buffer, so no data is copied to the heap.
+ */
+class ByteBufferInputStream extends InputStream implements SharedInputStream {
+	private final ByteBuffer buffer;
+
+	/**
+	 * @param buffer the data from its position to its limit
+	 */
+	ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer.slice();
+	}
+
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if(len == 0) {
+			return 0;
+		}
+		if(!buffer.hasRemaining()) {
+			return -1;
+		}
+		int count = Math.min(len, buffer.remaining());
+		buffer.get(b, off, count);
+		return count;
+	}
+
+	@Override
+	public long skip(long n) {
+		int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + count);
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		buffer.mark();
+	}
+
+	@Override
+	public synchronized void reset() {
+		buffer.reset();
+	}
+
+	@Override
+	public long getPosition() {
+		return buffer.position();
+	}
+
+	@Override
+	public InputStream newStream(long start, long end) {
+		if(start < 0) {
+			throw new IllegalArgumentException("start < 0");
+		}
+		int to = end == -1 ? buffer.capacity() : (int) Math.min(end, buffer.capacity());
+		int from = (int) Math.min(start, to);
+		return new ByteBufferInputStream(buffer.slice(from, to - from));
+	}
+}
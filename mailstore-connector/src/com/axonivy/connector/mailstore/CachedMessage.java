@@ -0,0 +1,68 @@
+package com.axonivy.connector.mailstore;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.Date;
+
+import javax.mail.Flags;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+
+/**
+ * A message of a folder, whose content is read from a {@link com.axonivy.connector.mailstore.cache.MessageCache}.
+ *
+ * Flags, folder, message number and received date belong to the server and are read from and
+ * written to the message in the folder.
+ */
+class CachedMessage extends FileMessage {
+	private final Message original;
+
+	/**
+	 * @param session
+	 * @param stream a {@link javax.mail.internet.SharedInputStream} over the cached file
+	 * @param source closed together with the message
+	 * @param original the message in the folder
+	 * @throws MessagingException
+	 */
+	CachedMessage(Session session, InputStream stream, Closeable source, Message original) throws MessagingException {
+		super(session, stream, source);
+		this.original = original;
+	}
+
+	@Override
+	public Folder getFolder() {
+		return original.getFolder();
+	}
+
+	@Override
+	public int getMessageNumber() {
+		return original.getMessageNumber();
+	}
+
+	@Override
+	public boolean isExpunged() {
+		return original.isExpunged();
+	}
+
+	@Override
+	public Date getReceivedDate() throws MessagingException {
+		return original.getReceivedDate();
+	}
+
+	@Override
+	public Flags getFlags() throws MessagingException {
+		return original.getFlags();
+	}
+
+	@Override
+	public boolean isSet(Flags.Flag flag) throws MessagingException {
+		return original.isSet(flag);
+	}
+
+	@Override
+	public void setFlags(Flags flag, boolean set) throws MessagingException {
+		original.setFlags(flag, set);
+	}
+}
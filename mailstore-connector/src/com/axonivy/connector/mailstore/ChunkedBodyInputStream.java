@@ -0,0 +1,192 @@
+package com.axonivy.connector.mailstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+
+import com.sun.mail.iap.ByteArray;
+import com.sun.mail.imap.IMAPBodyPart;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPMessage;
+import com.sun.mail.imap.protocol.BODY;
+
+/**
+ * The raw (still transfer encoded) body of an IMAP part, fetched in chunks of a fixed size.
+ *
+ * Every chunk is requested with a partial <code>FETCH BODY.PEEK[section]&lt;start.size&gt;</code>,
+ * independent of the partial fetch settings of the session, so only one chunk is held in memory.
+ * The stream can start at any position of the body.
+ */
+class ChunkedBodyInputStream extends InputStream {
+	private static final String TEXT_SECTION = "TEXT";
+	private final IMAPFolder folder;
+	private final IMAPMessage message;
+	private final String section;
+	private final int chunkSize;
+	private long position;
+	private byte[] chunk = new byte[0];
+	private int chunkStart;
+	private int chunkEnd;
+	private boolean last;
+
+	private ChunkedBodyInputStream(IMAPFolder folder, IMAPMessage message, String section, int chunkSize) {
+		this.folder = folder;
+		this.message = message;
+		this.section = section;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Create a stream for the body of a part.
+	 *
+	 * @param part
+	 * @param chunkSize number of bytes fetched with one request
+	 * @return the stream or <code>null</code> if the part is not a part of a message in an open IMAP folder
+	 * @throws MessagingException
+	 */
+	static ChunkedBodyInputStream of(Part part, int chunkSize) throws MessagingException {
+		IMAPMessage message = messageOf(part);
+		if(message == null || !message.getFolder().isOpen()) {
+			return null;
+		}
+		String section = part == message ? TEXT_SECTION : sectionOf(part);
+		if(section == null) {
+			return null;
+		}
+		return new ChunkedBodyInputStream((IMAPFolder) message.getFolder(), message, section, chunkSize);
+	}
+
+	/**
+	 * Get the message in the folder which contains the part.
+	 */
+	private static IMAPMessage messageOf(Part part) {
+		Part current = part;
+		while(current instanceof BodyPart) {
+			Multipart multipart = ((BodyPart) current).getParent();
+			current = multipart != null ? multipart.getParent() : null;
+		}
+		// messages nested in a message/rfc822 part have no folder
+		if(current instanceof IMAPMessage && ((IMAPMessage) current).getFolder() instanceof IMAPFolder) {
+			return (IMAPMessage) current;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the IMAP section number of a part, e.g. <code>2.1</code>.
+	 *
+	 * @return the section or <code>null</code> if the part is not in the multipart tree of its message
+	 */
+	private static String sectionOf(Part part) throws MessagingException {
+		if(!(part instanceof IMAPBodyPart)) {
+			return null;
+		}
+		Multipart multipart = ((BodyPart) part).getParent();
+		int index = -1;
+		for (int i = 0; i < multipart.getCount(); i++) {
+			if(multipart.getBodyPart(i) == part) {
+				index = i;
+				break;
+			}
+		}
+		Part parent = multipart.getParent();
+		if(index < 0 || parent == null) {
+			return null;
+		}
+		if(parent instanceof IMAPMessage) {
+			return Integer.toString(index + 1);
+		}
+		String parentSection = sectionOf(parent);
+		return parentSection != null ? parentSection + "." + (index + 1) : null;
+	}
+
+	/**
+	 * Continue reading at a position of the raw body.
+	 *
+	 * @param position
+	 */
+	void seek(long position) {
+		this.position = position;
+		chunkStart = chunkEnd;
+		last = false;
+	}
+
+	/**
+	 * Fetch some bytes of the raw body without changing the position of the stream.
+	 *
+	 * @param start
+	 * @param size
+	 * @return the bytes, fewer than requested at the end of the body
+	 * @throws IOException
+	 */
+	byte[] peek(long start, int size) throws IOException {
+		ByteArray data = fetch(start, size);
+		if(data == null) {
+			return new byte[0];
+		}
+		return data.getNewBytes();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(!fill()) {
+			return -1;
+		}
+		position++;
+		return chunk[chunkStart++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0) {
+			return 0;
+		}
+		if(!fill()) {
+			return -1;
+		}
+		int count = Math.min(len, chunkEnd - chunkStart);
+		System.arraycopy(chunk, chunkStart, b, off, count);
+		chunkStart += count;
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return chunkEnd - chunkStart;
+	}
+
+	private boolean fill() throws IOException {
+		if(chunkStart < chunkEnd) {
+			return true;
+		}
+		if(last) {
+			return false;
+		}
+		ByteArray data = fetch(position, chunkSize);
+		int count = data != null ? data.getCount() : 0;
+		chunk = data != null ? data.getBytes() : chunk;
+		chunkStart = data != null ? data.getStart() : 0;
+		chunkEnd = chunkStart + count;
+		last = count < chunkSize;
+		return count > 0;
+	}
+
+	private ByteArray fetch(long start, int size) throws IOException {
+		if(start > Integer.MAX_VALUE) {
+			throw new IOException("Position " + start + " is too large for a partial fetch.");
+		}
+		try {
+			// the message number is read inside the command, where expunges of other commands cannot change it
+			BODY body = (BODY) folder.doCommand(protocol -> protocol.peekBody(message.getMessageNumber(), section, (int) start, size));
+			return body != null ? body.getByteArray() : null;
+		} catch (MessagingException e) {
+			throw new IOException("Could not fetch section " + section + " of message " + message.getMessageNumber()
+				+ " in folder " + folder.getFullName(), e);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.axonivy.connector.mailstore;
+
+import static com.axonivy.connector.mailstore.MailStoreService.LOG;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sink for the debug output of a JavaMail session, which logs the protocol trace line by line.
+ *
+ * Only the current line is buffered and lines are truncated to a maximum length, so the memory
+ * stays constant, also for fetched message bodies, for the whole lifetime of a connection.
+ * Credentials of <code>LOGIN</code>, <code>PASS</code> and <code>AUTHENTICATE</code>/<code>AUTH</code>
+ * commands and the lines exchanged during authentication are redacted.
+ */
+class DebugLogStream extends OutputStream {
+	static final int DEFAULT_MAX_LINE_LENGTH = 1000;
+	private static final String REDACTED = "***";
+	private static final Pattern LOGIN = Pattern.compile("^(\\S+ LOGIN \\S+|PASS) .*$", Pattern.CASE_INSENSITIVE);
+	private static final Pattern AUTHENTICATE = Pattern.compile("^((?:\\S+ )?(?:AUTHENTICATE|AUTH) \\S+)(.*)$", Pattern.CASE_INSENSITIVE);
+	private static final Pattern AUTHENTICATION_END = Pattern.compile("^(\\S+ (OK|NO|BAD)\\b|[+-](OK|ERR)\\b).*", Pattern.CASE_INSENSITIVE);
+
+	private final String storeName;
+	private final int maxLineLength;
+	private byte[] line = new byte[128];
+	private int length;
+	private long dropped;
+	private boolean authenticating;
+
+	/**
+	 * @param storeName prefix of the logged lines
+	 * @param maxLineLength lines are truncated after this number of bytes
+	 */
+	DebugLogStream(String storeName, int maxLineLength) {
+		this.storeName = storeName;
+		this.maxLineLength = maxLineLength > 0 ? maxLineLength : DEFAULT_MAX_LINE_LENGTH;
+	}
+
+	@Override
+	public synchronized void write(int b) {
+		if(b == '\n') {
+			logLine();
+		}
+		else if(b != '\r') {
+			append((byte) b);
+		}
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			if(b[i] == '\n') {
+				logLine();
+			}
+			else if(b[i] != '\r') {
+				append(b[i]);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if(length > 0 || dropped > 0) {
+			logLine();
+		}
+	}
+
+	private void append(byte b) {
+		if(length >= maxLineLength) {
+			dropped++;
+			return;
+		}
+		if(length == line.length) {
+			line = Arrays.copyOf(line, Math.min(maxLineLength, line.length * 2));
+		}
+		line[length++] = b;
+	}
+
+	private void logLine() {
+		String text = redact(new String(line, 0, length, StandardCharsets.UTF_8));
+		if(dropped > 0) {
+			text += "... (" + dropped + " more bytes)";
+		}
+		LOG.debug("[{0}] {1}", storeName, text);
+		length = 0;
+		dropped = 0;
+	}
+
+	/**
+	 * Remove credentials from a protocol line.
+	 *
+	 * @param text
+	 * @return
+	 */
+	String redact(String text) {
+		if(authenticating) {
+			if(AUTHENTICATION_END.matcher(text).matches()) {
+				authenticating = false;
+				return text;
+			}
+			return text.startsWith("DEBUG") ? text : REDACTED;
+		}
+		Matcher login = LOGIN.matcher(text);
+		if(login.matches()) {
+			return login.group(1) + " " + REDACTED;
+		}
+		Matcher authenticate = AUTHENTICATE.matcher(text);
+		if(authenticate.matches() && !text.startsWith("DEBUG")) {
+			authenticating = true;
+			return authenticate.group(2).isBlank() ? text : authenticate.group(1) + " " + REDACTED;
+		}
+		return text;
+	}
+}
@@ -0,0 +1,20 @@
+package com.axonivy.connector.mailstore;
+
+import javax.mail.FetchProfile;
+
+/**
+ * The {@code FetchAware} interface is implemented by filters and comparators which know,
+ * which items of a message they read.
+ * <p>
+ * The {@link MailStoreService.MessageIterator} fetches these items for all messages with a
+ * single request instead of one request per message. Filters and comparators which do not
+ * implement this interface are expected to read the {@link FetchProfile.Item#ENVELOPE}.
+ * </p>
+ */
+public interface FetchAware {
+
+	/**
+	 * @return the items read by this object
+	 */
+	FetchProfile getFetchProfile();
+}
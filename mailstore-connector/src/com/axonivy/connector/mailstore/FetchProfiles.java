@@ -0,0 +1,108 @@
+package com.axonivy.connector.mailstore;
+
+import javax.mail.FetchProfile;
+
+/**
+ * Functions to create and combine {@link FetchProfile}s.
+ */
+public class FetchProfiles {
+
+	private FetchProfiles() {
+	}
+
+	/**
+	 * Create a profile of items.
+	 *
+	 * @param items e.g. {@link FetchProfile.Item#FLAGS}
+	 * @return
+	 */
+	public static FetchProfile of(FetchProfile.Item... items) {
+		FetchProfile profile = new FetchProfile();
+		for (FetchProfile.Item item : items) {
+			profile.add(item);
+		}
+		return profile;
+	}
+
+	/**
+	 * Create a profile of headers.
+	 *
+	 * @param headerNames e.g. <code>Reply-To</code>
+	 * @return
+	 */
+	public static FetchProfile ofHeaders(String... headerNames) {
+		FetchProfile profile = new FetchProfile();
+		for (String headerName : headerNames) {
+			profile.add(headerName);
+		}
+		return profile;
+	}
+
+	/**
+	 * Combine profiles.
+	 *
+	 * @param profiles
+	 * @return a new profile containing the items and headers of all profiles
+	 */
+	public static FetchProfile merge(FetchProfile... profiles) {
+		FetchProfile merged = new FetchProfile();
+		for (FetchProfile profile : profiles) {
+			for (FetchProfile.Item item : profile.getItems()) {
+				if(!merged.contains(item)) {
+					merged.add(item);
+				}
+			}
+			for (String headerName : profile.getHeaderNames()) {
+				if(!merged.contains(headerName)) {
+					merged.add(headerName);
+				}
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Get the items read by a filter or comparator.
+	 *
+	 * @param object a filter or comparator
+	 * @return the declared profile for {@link FetchAware} objects, an empty profile for <code>null</code>
+	 * and the {@link FetchProfile.Item#ENVELOPE} for all others
+	 */
+	public static FetchProfile requiredBy(Object object) {
+		if(object == null) {
+			return new FetchProfile();
+		}
+		if(object instanceof FetchAware) {
+			return ((FetchAware) object).getFetchProfile();
+		}
+		return of(FetchProfile.Item.ENVELOPE);
+	}
+
+	/**
+	 * Remove an item from a profile.
+	 *
+	 * @param profile
+	 * @param item
+	 * @return a new profile containing the other items and the headers of the profile
+	 */
+	static FetchProfile without(FetchProfile profile, FetchProfile.Item item) {
+		FetchProfile result = new FetchProfile();
+		for (FetchProfile.Item contained : profile.getItems()) {
+			if(contained != item) {
+				result.add(contained);
+			}
+		}
+		for (String headerName : profile.getHeaderNames()) {
+			result.add(headerName);
+		}
+		return result;
+	}
+
+	/**
+	 * @param profile
+	 * @return does the profile contain any item or header?
+	 */
+	static boolean isEmpty(FetchProfile profile) {
+		return profile.getItems().length == 0 && profile.getHeaderNames().length == 0;
+	}
+}
@@ -0,0 +1,46 @@
+package com.axonivy.connector.mailstore;
+
+import static com.axonivy.connector.mailstore.MailStoreService.LOG;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * A message loaded from a file, whose content is read from the file when it is needed.
+ *
+ * The message and its parts only reference ranges of the file, so loading a large message needs
+ * little heap. Close the message to release the file, when it is not used anymore.
+ *
+ * @see MailStoreService#loadMessage(java.nio.file.Path)
+ * @see MailStoreService#loadMessage(java.nio.channels.FileChannel)
+ */
+public class FileMessage extends MimeMessage implements AutoCloseable {
+	private final Closeable source;
+
+	/**
+	 * @param session
+	 * @param stream a {@link javax.mail.internet.SharedInputStream} over the file
+	 * @param source closed together with the message, may be <code>null</code>
+	 * @throws MessagingException
+	 */
+	FileMessage(Session session, InputStream stream, Closeable source) throws MessagingException {
+		super(session, stream);
+		this.source = source;
+	}
+
+	@Override
+	public void close() {
+		if(source != null) {
+			try {
+				source.close();
+			} catch (IOException e) {
+				LOG.info("Ignoring exception while closing message file.", e);
+			}
+		}
+	}
+}
@@ -2,6 +2,7 @@ package com.axonivy.connector.mailstore;
 
 import static com.axonivy.connector.mailstore.MailStoreService.LOG;
 
+import java.util.Map;
 import java.util.Properties;
 
 import javax.mail.Session;
@@ -20,6 +21,7 @@ import ch.ivyteam.ivy.vars.Variable;
 public class MailSessionProvider {
 
 	private static final String PROPERTIES_VAR = "properties";
+	private static volatile Session defaultSession;
 
 	/**
 	 * https://eclipse-ee4j.github.io/angus-mail/docs/api/org.eclipse.angus.mail/org/eclipse/angus/mail/imap/package-summary.html
@@ -39,10 +41,32 @@ public class MailSessionProvider {
 		}
 	}
 
+	/**
+	 * Get the shared {@link Session} of a store.
+	 * 
+	 * The session is cached in the {@link MailStoreConfig} of the store.
+	 */
 	static Session getSession(String storeName) throws Exception {
-		Properties properties = getProperties(storeName);
+		return MailStoreConfig.get(storeName).getSession();
+	}
+
+	/**
+	 * Create the session properties of a store.
+	 * 
+	 * @param storeVariables variables of the store by their name relative to the store
+	 * @param propertiesPrefix prefix of the variables which are session properties
+	 */
+	static Properties createProperties(Map<String, String> storeVariables, String propertiesPrefix) {
+		Properties properties = new Properties();
+		storeVariables.forEach((name, value) -> {
+			if (name.startsWith(propertiesPrefix)) {
+				String propertyName = name.substring(propertiesPrefix.length());
+				LOG.info("Setting additional property {0}: ''{1}''", propertyName, value);
+				properties.setProperty(propertyName, value);
+			}
+		});
 		enrichSslContext(properties);
-		return Session.getInstance(properties, null);
+		return properties;
 	}
 
 	private static void enrichSslContext(Properties properties) {
@@ -59,7 +83,7 @@ public class MailSessionProvider {
 			properties.put(Property.IMAP.SSL_SOCKET_FACTORY, socketFactory);
 			properties.put(Property.IMAP.SOCKET_FACTORY_FALLBACK, "false");
 		}
-		properties.put(Property.IMAP.SOCKET_FACTORY, ivySslContext());
+		properties.put(Property.IMAP.SOCKET_FACTORY, socketFactory);
 	}
 
 	private static boolean isStartTLSEnabled(Properties properties) {
@@ -78,9 +102,24 @@ public class MailSessionProvider {
 		return new IvySslSocketFactory(new SslConfig(false, "noAlias", settings));
 	}
 
+	/**
+	 * Get the default {@link Session} for messages without a store, e.g. loaded messages.
+	 * 
+	 * {@link Session#getDefaultInstance(Properties, javax.mail.Authenticator)} keeps the session
+	 * of the first call, so the properties are only read once.
+	 */
 	static Session getSession() {
-		Properties properties = getProperties();
-		return Session.getDefaultInstance(properties, null);
+		Session session = defaultSession;
+		if (session == null) {
+			synchronized (MailSessionProvider.class) {
+				session = defaultSession;
+				if (session == null) {
+					session = Session.getDefaultInstance(getProperties(), null);
+					defaultSession = session;
+				}
+			}
+		}
+		return session;
 	}
 
 	static Properties getProperties() {
@@ -100,29 +139,4 @@ public class MailSessionProvider {
 		return properties;
 	}
 
-	// Only retrieve properties from the store that belong to
-	static Properties getProperties(String storeName) {
-		Properties properties = new Properties();
-		String propertiesPrefix = String.format("%s.%s.%s.", MailStoreService.MAIL_STORE_VAR, storeName,
-				PROPERTIES_VAR);
-
-		for (Variable variable : Ivy.var().all()) {
-			String name = variable.name();
-			if (name.contains(propertiesPrefix)) {
-				String propertyName = getSubstringAfterProperties(name);
-				String value = variable.value();
-				LOG.info("Setting additional property {0}: ''{1}''", propertyName, value);
-				properties.setProperty(propertyName, value);
-			}
-		}
-
-		return properties;
-	}
-
-	private static String getSubstringAfterProperties(String input) {
-		int index = input.indexOf(PROPERTIES_VAR);
-
-		return index != -1 ? input.substring(index + PROPERTIES_VAR.length() + 1) : null;
-	}
-
 }
@@ -0,0 +1,209 @@
+package com.axonivy.connector.mailstore;
+
+import static com.axonivy.connector.mailstore.MailStoreService.LOG;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Session;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.axonivy.connector.mailstore.enums.MailMovingMethod;
+
+import ch.ivyteam.ivy.environment.Ivy;
+import ch.ivyteam.ivy.vars.Variable;
+
+/**
+ * Immutable snapshot of the configuration of a store.
+ *
+ * The snapshot is created from the variables <code>mailstoreConnector.&lt;storeName&gt;.*</code>
+ * and holds the {@link Session} of the store. Snapshots are cached per store name.
+ * The variables are checked for changes at most once per {@link #REVALIDATE_INTERVAL_MILLIS}
+ * and the {@link Session} is only rebuilt, when one of them changed.
+ */
+public class MailStoreConfig {
+	static final long REVALIDATE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	static final String PROTOCOL_VAR = "protocol";
+	static final String HOST_VAR = "host";
+	static final String PORT_VAR = "port";
+	static final String DEBUG_VAR = "debug";
+	static final String MOVING_METHOD_VAR = "movingMethod";
+	static final String PROPERTIES_VAR = "properties";
+	static final String SERVER_SEARCH_VAR = "serverSearch";
+	private static final Map<String, MailStoreConfig> CACHE = new ConcurrentHashMap<>();
+
+	private final String storeName;
+	private final Map<String, String> variables;
+	private final String protocol;
+	private final String host;
+	private final int port;
+	private final boolean debug;
+	private final MailMovingMethod movingMethod;
+	private final boolean serverSearch;
+	private final Properties properties;
+	private final Session session;
+	private volatile long validUntil;
+
+	private MailStoreConfig(String storeName, Map<String, String> variables) {
+		this.storeName = storeName;
+		this.variables = Collections.unmodifiableMap(variables);
+		this.protocol = variable(PROTOCOL_VAR);
+		this.host = variable(HOST_VAR);
+		this.port = port(storeName, variable(PORT_VAR));
+		this.debug = Boolean.parseBoolean(variable(DEBUG_VAR));
+		this.movingMethod = MailMovingMethod.from(variable(MOVING_METHOD_VAR));
+		this.serverSearch = Boolean.parseBoolean(StringUtils.trim(variable(SERVER_SEARCH_VAR)));
+		this.properties = MailSessionProvider.createProperties(variables, PROPERTIES_VAR + ".");
+		this.session = Session.getInstance(properties, null);
+		this.validUntil = System.currentTimeMillis() + REVALIDATE_INTERVAL_MILLIS;
+	}
+
+	/**
+	 * Get the configuration of a store.
+	 *
+	 * @param storeName
+	 * @return
+	 */
+	public static MailStoreConfig get(String storeName) {
+		MailStoreConfig config = CACHE.get(storeName);
+		if(config != null && System.currentTimeMillis() < config.validUntil) {
+			return config;
+		}
+		return CACHE.compute(storeName, (name, current) -> revalidate(name, current));
+	}
+
+	/**
+	 * Drop the cached configuration of a store.
+	 *
+	 * The configuration will be read again from the variables on the next access.
+	 *
+	 * @param storeName
+	 */
+	public static void invalidate(String storeName) {
+		if(CACHE.remove(storeName) != null) {
+			MailStorePool.get().clear(storeName);
+		}
+	}
+
+	private static MailStoreConfig revalidate(String storeName, MailStoreConfig current) {
+		Map<String, String> variables = readVariables(storeName);
+		if(current != null && current.variables.equals(variables)) {
+			current.validUntil = System.currentTimeMillis() + REVALIDATE_INTERVAL_MILLIS;
+			return current;
+		}
+		if(current != null) {
+			LOG.info("Configuration of store {0} changed, creating a new session.", storeName);
+			MailStorePool.get().clear(storeName);
+		}
+		return new MailStoreConfig(storeName, variables);
+	}
+
+	private static int port(String storeName, String value) {
+		if(StringUtils.isBlank(value)) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw MailStoreService.buildError("config:port")
+				.withMessage("Invalid port '" + value + "' of store " + storeName)
+				.withCause(e)
+				.build();
+		}
+	}
+
+	private static Map<String, String> readVariables(String storeName) {
+		String prefix = MailStoreService.MAIL_STORE_VAR + "." + storeName + ".";
+		Map<String, String> variables = new HashMap<>();
+		for (Variable variable : Ivy.var().all()) {
+			String name = variable.name();
+			if (name.startsWith(prefix)) {
+				variables.put(name.substring(prefix.length()), variable.value());
+			}
+		}
+		return variables;
+	}
+
+	/**
+	 * Create a new {@link Session} with the properties of this configuration.
+	 *
+	 * Use this, when the session must be changed (e.g. debug output) and
+	 * the shared {@link #getSession()} must not be affected.
+	 *
+	 * @param additionalProperties properties added to the properties of this configuration
+	 * @return
+	 */
+	Session newSession(Map<String, Object> additionalProperties) {
+		Properties sessionProperties = getProperties();
+		sessionProperties.putAll(additionalProperties);
+		return Session.getInstance(sessionProperties, null);
+	}
+
+	/**
+	 * Get the value of a variable of this store.
+	 *
+	 * @param var name of the variable relative to the store, e.g. <code>host</code>
+	 * @return the value or <code>null</code> if the variable is not defined
+	 */
+	public String variable(String var) {
+		return variables.get(var);
+	}
+
+	public String getStoreName() {
+		return storeName;
+	}
+
+	public String getProtocol() {
+		return protocol;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public boolean isDebug() {
+		return debug;
+	}
+
+	public MailMovingMethod getMovingMethod() {
+		return movingMethod;
+	}
+
+	/**
+	 * @return should filters be pre-selected with a search on the server? Default is <code>false</code>.
+	 */
+	public boolean isServerSearch() {
+		return serverSearch;
+	}
+
+	/**
+	 * @return a copy of the session properties
+	 */
+	public Properties getProperties() {
+		Properties copy = new Properties();
+		copy.putAll(properties);
+		return copy;
+	}
+
+	/**
+	 * @return the shared session of this store
+	 */
+	public Session getSession() {
+		return session;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MailStoreConfig[store: %s, protocol: %s, host: %s, port: %d, debug: %s, movingMethod: %s]",
+				storeName, protocol, host, port, debug, movingMethod);
+	}
+}
@@ -0,0 +1,370 @@
+package com.axonivy.connector.mailstore;
+
+import static com.axonivy.connector.mailstore.MailStoreService.LOG;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import javax.mail.FetchProfile;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Store;
+import javax.mail.UIDFolder;
+import javax.mail.event.MessageCountAdapter;
+import javax.mail.event.MessageCountEvent;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.axonivy.connector.mailstore.enums.MailMovingMethod;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+
+/**
+ * Long running listener, which hands new messages of a folder to a handler as soon as they arrive.
+ *
+ * The listener keeps the source folder open and waits for new messages with IMAP IDLE. If the server
+ * does not support IDLE, it polls the folder with NOOP commands. Only messages which arrived after
+ * the listener was started are handled. When the connection is lost, the listener reconnects and also
+ * handles the messages which arrived in the meantime.
+ *
+ * {@link #run()} blocks the calling thread until {@link #close()} is called, so it should be run by a
+ * long running thread which has access to the Ivy environment (e.g. a start event bean).
+ * Handled messages are moved/deleted like in the {@link MailStoreService.MessageIterator}. Messages which
+ * were not handled (the handler returned <code>false</code> or failed) are offered again together with the
+ * next new messages and after a reconnect. Messages rejected by the filter are not offered again.
+ */
+public class MailStoreListener implements Runnable, AutoCloseable {
+	private static final String IDLE_CAPABILITY = "IDLE";
+	private static final String EVENT_EXECUTOR_PROPERTY = "mail.event.executor";
+	private static final Executor DIRECT_EXECUTOR = Runnable::run;
+	private static final long MIN_RECONNECT_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+	private static final long MAX_RECONNECT_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	private static final ScheduledExecutorService KEEPALIVE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "mailstore-listener-keepalive");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String storeName;
+	private final String srcFolderName;
+	private final String dstFolderName;
+	private final boolean delete;
+	private final Predicate<Message> filter;
+	private final MessageHandler handler;
+	private final Object lock = new Object();
+	private final Queue<Message> arrived = new ConcurrentLinkedQueue<>();
+	private Duration pollInterval = Duration.ofSeconds(30);
+	private Duration idleRefresh = Duration.ofMinutes(9);
+	private volatile boolean running;
+	private volatile IMAPFolder folder;
+	private long reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+	private long uidValidity = -1;
+	private long lastUid = -1;
+	/** messages up to {@link #lastUid}, which were not handled and are offered again */
+	private final SortedSet<Long> unhandledUids = new TreeSet<>();
+	private boolean expungeOnClose;
+
+	MailStoreListener(String storeName, String srcFolderName, String dstFolderName, boolean delete,
+			Predicate<Message> filter, MessageHandler handler) {
+		this.storeName = storeName;
+		this.srcFolderName = srcFolderName;
+		this.dstFolderName = dstFolderName;
+		this.delete = delete;
+		this.filter = filter;
+		this.handler = handler;
+	}
+
+	/**
+	 * Interval to check for new messages, if the server does not support IDLE.
+	 *
+	 * @param pollInterval default is 30 seconds
+	 * @return
+	 */
+	public MailStoreListener withPollInterval(Duration pollInterval) {
+		this.pollInterval = pollInterval;
+		return this;
+	}
+
+	/**
+	 * Interval to re-issue the IDLE command, so that the server does not drop the connection.
+	 *
+	 * @param idleRefresh default is 9 minutes
+	 * @return
+	 */
+	public MailStoreListener withIdleRefresh(Duration idleRefresh) {
+		this.idleRefresh = idleRefresh;
+		return this;
+	}
+
+	/**
+	 * Listen for new messages until {@link #close()} is called.
+	 */
+	@Override
+	public void run() {
+		String protocol = MailStoreConfig.get(storeName).getProtocol();
+		if(protocol == null || !protocol.startsWith("imap")) {
+			throw MailStoreService.buildError("listener").withMessage("Listening for new messages needs an IMAP store, store "
+					+ storeName + " uses protocol " + protocol).build();
+		}
+		running = true;
+		// Use own classloader so that internal classes of javax.mail API are found.
+		ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
+		Thread.currentThread().setContextClassLoader(Session.class.getClassLoader());
+		try {
+			while(running) {
+				try {
+					listen();
+				} catch (Exception e) {
+					if(!running) {
+						break;
+					}
+					LOG.warn("Listener of store {0} folder {1} lost its connection, reconnecting in {2} ms.", e, storeName, srcFolderName, reconnectDelay);
+					await(reconnectDelay);
+					reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MILLIS);
+				}
+			}
+		} finally {
+			Thread.currentThread().setContextClassLoader(originalClassLoader);
+		}
+	}
+
+	/**
+	 * Stop listening.
+	 *
+	 * The thread in {@link #run()} returns after the current message is handled.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		IMAPFolder current = folder;
+		if(current != null) {
+			// any command of another thread ends the IDLE command
+			noopQuietly(current);
+		}
+	}
+
+	private void listen() throws Exception {
+		Store store = MailStoreService.connectStore(storeName, Map.of(EVENT_EXECUTOR_PROPERTY, DIRECT_EXECUTOR));
+		ScheduledFuture<?> keepalive = null;
+		Folder srcFolder = null;
+		expungeOnClose = false;
+		try {
+			srcFolder = MailStoreService.openFolder(store, srcFolderName, Folder.READ_WRITE);
+			IMAPFolder imapFolder = (IMAPFolder) srcFolder;
+			Folder dstFolder = null;
+			if(StringUtils.isNotBlank(dstFolderName)) {
+				dstFolder = store.getFolder(dstFolderName);
+				if(!dstFolder.exists()) {
+					throw new MessagingException("Could not open folder " + dstFolderName);
+				}
+			}
+			MailMovingMethod movingMethod = MailStoreConfig.get(storeName).getMovingMethod();
+
+			// events are delivered by the direct executor in the thread which reads the server response
+			imapFolder.addMessageCountListener(new MessageCountAdapter() {
+				@Override
+				public void messagesAdded(MessageCountEvent event) {
+					arrived.addAll(Arrays.asList(event.getMessages()));
+				}
+			});
+			folder = imapFolder;
+
+			catchUp(imapFolder);
+			handleArrived(imapFolder, dstFolder, movingMethod, true);
+			reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+
+			boolean idle = ((IMAPStore) store).hasCapability(IDLE_CAPABILITY);
+			LOG.info("Listening for new messages in store {0} folder {1} with {2}.", storeName, srcFolderName, idle ? "IDLE" : "NOOP polling");
+			if(idle) {
+				long refresh = idleRefresh.toMillis();
+				keepalive = KEEPALIVE.scheduleWithFixedDelay(() -> noopQuietly(imapFolder), refresh, refresh, TimeUnit.MILLISECONDS);
+			}
+
+			while(running) {
+				if(idle) {
+					imapFolder.idle(true);
+				}
+				else {
+					await(pollInterval.toMillis());
+					if(running) {
+						noop(imapFolder);
+					}
+				}
+				handleArrived(imapFolder, dstFolder, movingMethod, false);
+			}
+		} finally {
+			folder = null;
+			arrived.clear();
+			if(keepalive != null) {
+				keepalive.cancel(false);
+			}
+			try {
+				if(srcFolder != null && srcFolder.isOpen()) {
+					// deleted messages of other clients are only expunged, if the server cannot expunge single messages
+					srcFolder.close(expungeOnClose);
+				}
+			} catch (Exception e) {
+				LOG.info("Ignoring exception while closing folder {0} of listener.", e, srcFolderName);
+			}
+			try {
+				store.close();
+			} catch (Exception e) {
+				LOG.info("Ignoring exception while closing store {0} of listener.", e, storeName);
+			}
+		}
+	}
+
+	/**
+	 * Remember the current end of the folder or queue the messages, which arrived while the listener was disconnected.
+	 */
+	private void catchUp(IMAPFolder imapFolder) throws MessagingException {
+		long currentUidValidity = imapFolder.getUIDValidity();
+		if(lastUid >= 0 && currentUidValidity == uidValidity) {
+			arrived.addAll(Arrays.asList(imapFolder.getMessagesByUID(lastUid + 1, UIDFolder.LASTUID)));
+			return;
+		}
+		if(lastUid >= 0) {
+			LOG.warn("UIDVALIDITY of store {0} folder {1} changed, messages which arrived while disconnected are not handled.", storeName, srcFolderName);
+		}
+		unhandledUids.clear();
+		uidValidity = currentUidValidity;
+		long uidNext = imapFolder.getUIDNext();
+		if(uidNext > 0) {
+			lastUid = uidNext - 1;
+		}
+		else {
+			int count = imapFolder.getMessageCount();
+			lastUid = count > 0 ? imapFolder.getUID(imapFolder.getMessage(count)) : 0;
+		}
+	}
+
+	/**
+	 * Handle the new messages and retry the messages which were not handled.
+	 *
+	 * @param retryUnhandled retry unhandled messages even if there are no new messages, e.g. after a reconnect
+	 */
+	private void handleArrived(IMAPFolder imapFolder, Folder dstFolder, MailMovingMethod movingMethod, boolean retryUnhandled) throws MessagingException {
+		List<Message> messages = new ArrayList<>();
+		Message message;
+		while((message = arrived.poll()) != null) {
+			if(!message.isExpunged()) {
+				messages.add(message);
+			}
+		}
+		if(messages.isEmpty() && (!retryUnhandled || unhandledUids.isEmpty())) {
+			// unhandled messages are retried with new messages, not in every poll
+			return;
+		}
+		if(!unhandledUids.isEmpty()) {
+			long[] uids = unhandledUids.stream().mapToLong(Long::longValue).toArray();
+			Message[] retries = imapFolder.getMessagesByUID(uids);
+			for (int i = 0; i < uids.length; i++) {
+				if(retries[i] == null || retries[i].isExpunged()) {
+					// removed by another client
+					unhandledUids.remove(uids[i]);
+				}
+				else {
+					messages.add(retries[i]);
+				}
+			}
+		}
+
+		Message[] batch = messages.toArray(Message[]::new);
+		FetchProfile fetchProfile = new FetchProfile();
+		fetchProfile.add(UIDFolder.FetchProfileItem.UID);
+		fetchProfile.add(FetchProfile.Item.ENVELOPE);
+		imapFolder.fetch(batch, fetchProfile);
+		Arrays.sort(batch, Comparator.comparingLong(m -> uid(imapFolder, m)));
+
+		MessageCommitter committer = new MessageCommitter(imapFolder, movingMethod, delete, Integer.MAX_VALUE, true, committed -> {});
+		for (Message current : batch) {
+			long uid = imapFolder.getUID(current);
+			// the range n:* always contains the last message, even if its UID is lower than n
+			if(uid <= lastUid && !unhandledUids.remove(uid)) {
+				continue;
+			}
+			lastUid = Math.max(lastUid, uid);
+			switch(handle(current)) {
+				case HANDLED -> committer.handled(current, dstFolder);
+				case NOT_HANDLED -> unhandledUids.add(uid);
+				case FILTERED -> {}
+			}
+		}
+		// all handled messages of this burst are moved and deleted together
+		committer.flush();
+		expungeOnClose |= committer.expungeFlagged();
+	}
+
+	private Outcome handle(Message message) {
+		try {
+			if(filter != null && !filter.test(message)) {
+				return Outcome.FILTERED;
+			}
+			return handler.handle(message) ? Outcome.HANDLED : Outcome.NOT_HANDLED;
+		} catch (Exception e) {
+			LOG.error("Unable to handle email {0}", e, MailStoreService.toString(message));
+			return Outcome.NOT_HANDLED;
+		} finally {
+			MessageAnalysis.drop(message);
+		}
+	}
+
+	private static long uid(IMAPFolder imapFolder, Message message) {
+		try {
+			return imapFolder.getUID(message);
+		} catch (MessagingException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private static void noop(IMAPFolder imapFolder) throws MessagingException {
+		imapFolder.doCommand(protocol -> {
+			protocol.noop();
+			return null;
+		});
+	}
+
+	private static void noopQuietly(IMAPFolder imapFolder) {
+		try {
+			noop(imapFolder);
+		} catch (Exception e) {
+			LOG.debug("Ignoring exception of NOOP in listener.", e);
+		}
+	}
+
+	private void await(long millis) {
+		synchronized (lock) {
+			if(running) {
+				try {
+					lock.wait(millis);
+				} catch (InterruptedException e) {
+					running = false;
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private enum Outcome {
+		HANDLED, NOT_HANDLED, FILTERED
+	}
+}
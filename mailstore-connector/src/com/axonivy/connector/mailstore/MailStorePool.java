@@ -0,0 +1,419 @@
+package com.axonivy.connector.mailstore;
+
+import static com.axonivy.connector.mailstore.MailStoreService.LOG;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.mail.Folder;
+import javax.mail.MessagingException;
+import javax.mail.Store;
+
+/**
+ * Pool of connected {@link Store}s per store name.
+ *
+ * Connecting to a mail store is expensive (TCP connect, TLS handshake and login).
+ * Stores returned to the pool are kept connected and handed out again on the next
+ * request for the same store name. Before a pooled store is handed out, its health
+ * is checked with {@link Store#isConnected()}, which sends a NOOP for IMAP stores.
+ * Idle stores are evicted after a configurable timeout and at most a configurable
+ * number of idle stores is kept per store name.
+ *
+ * The number of stores in use per store name is not limited by the pool size. An optional
+ * maximum of leased stores makes further callers wait until a store is returned, and fail
+ * if none is returned within the maximum wait time.
+ *
+ * Handles of existing folders are cached per store, so a folder is checked for existence
+ * only once per connection.
+ *
+ * {@link #clear(String)} starts a new generation of a store name. Stores which were borrowed
+ * before (e.g. with an old configuration) are closed when they are returned.
+ */
+public class MailStorePool {
+	private static final MailStorePool INSTANCE = new MailStorePool();
+	private final Map<String, StorePool> pools = new ConcurrentHashMap<>();
+	private final Map<Store, Map<String, Folder>> folders = new ConcurrentHashMap<>();
+
+	public static MailStorePool get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Borrow a connected store from the pool or connect a new one.
+	 *
+	 * @param storeName
+	 * @param maxSize maximum number of idle stores kept, pooling is disabled if <code>&lt;= 0</code>
+	 * @param maxLeased maximum number of stores in use at the same time, no limit if <code>&lt;= 0</code>
+	 * @param maxWaitMillis time to wait for a store, when the maximum number of stores is in use
+	 * @param idleTimeoutMillis time after which an idle store is evicted
+	 * @param connector creates a new connected store on a pool miss
+	 * @return
+	 * @throws Exception
+	 * @throws MessagingException if no store was returned within the maximum wait time
+	 */
+	Store borrow(String storeName, int maxSize, int maxLeased, long maxWaitMillis, long idleTimeoutMillis, StoreConnector connector) throws Exception {
+		StorePool pool = pool(storeName);
+		pool.configure(maxSize, maxLeased, idleTimeoutMillis);
+		if(!pool.lease(maxWaitMillis)) {
+			throw new MessagingException("All " + maxLeased + " connections of store " + storeName + " are in use.");
+		}
+
+		try {
+			IdleStore idle;
+			while((idle = pool.pollIdle()) != null) {
+				if(pool.isExpired(idle) || !isHealthy(idle.store)) {
+					pool.evicted();
+					closeQuietly(storeName, idle.store);
+				}
+				else {
+					pool.hit();
+					LOG.debug("Reusing pooled connection for store {0}", storeName);
+					return pool.borrowed(idle.store, idle.generation);
+				}
+			}
+
+			pool.miss();
+			// taken before connecting, a clear while connecting makes the new store outdated
+			long generation = pool.generation();
+			return pool.borrowed(connector.connect(), generation);
+		} catch (Exception e) {
+			pool.leased(-1);
+			throw e;
+		}
+	}
+
+	/**
+	 * Return a store to the pool.
+	 *
+	 * If the store is not connected anymore, was borrowed before the pool was cleared or the pool is full,
+	 * the store is closed.
+	 *
+	 * @param storeName
+	 * @param store
+	 */
+	void release(String storeName, Store store) {
+		if(store == null) {
+			return;
+		}
+		StorePool pool = pool(storeName);
+		long generation = pool.returned(store);
+		pool.leased(-1);
+		List<Store> toClose = new ArrayList<>();
+		if(!store.isConnected() || !pool.offerIdle(store, generation, toClose)) {
+			toClose.add(store);
+		}
+		for (Store close : toClose) {
+			closeQuietly(storeName, close);
+		}
+	}
+
+	/**
+	 * Close a store which was borrowed from the pool and must not be reused.
+	 *
+	 * @param storeName
+	 * @param store
+	 */
+	void invalidate(String storeName, Store store) {
+		if(store == null) {
+			return;
+		}
+		StorePool pool = pool(storeName);
+		pool.returned(store);
+		pool.leased(-1);
+		pool.evicted();
+		closeQuietly(storeName, store);
+	}
+
+	/**
+	 * Get a handle of an existing folder of a store.
+	 *
+	 * The handle is cached until the store is closed by the pool, so this must only be used for stores
+	 * of the pool. A store is used by one caller at a time, so the handle is not shared between threads.
+	 * The folder is not opened.
+	 *
+	 * @param store
+	 * @param folderName
+	 * @return
+	 * @throws MessagingException if the folder does not exist
+	 */
+	Folder existingFolder(Store store, String folderName) throws MessagingException {
+		Map<String, Folder> storeFolders = folders.computeIfAbsent(store, s -> new ConcurrentHashMap<>());
+		Folder folder = storeFolders.get(folderName);
+		if(folder == null) {
+			folder = store.getFolder(folderName);
+			if(folder == null || !folder.exists()) {
+				throw new MessagingException("Could not open folder " + folderName);
+			}
+			storeFolders.put(folderName, folder);
+		}
+		return folder;
+	}
+
+	/**
+	 * Close all idle stores which were not used for longer than their idle timeout.
+	 *
+	 * Expired stores are also evicted when a store is borrowed or released, so calling this
+	 * function is only needed to free connections of stores which are not used anymore.
+	 */
+	public void evictIdle() {
+		pools.forEach((storeName, pool) -> {
+			for (Store store : pool.removeExpired()) {
+				closeQuietly(storeName, store);
+			}
+		});
+	}
+
+	/**
+	 * Close all idle stores of a store name.
+	 *
+	 * Stores which are in use are closed when they are returned.
+	 *
+	 * @param storeName
+	 */
+	public void clear(String storeName) {
+		StorePool pool = pools.get(storeName);
+		if(pool != null) {
+			for (Store store : pool.removeAll()) {
+				closeQuietly(storeName, store);
+			}
+		}
+	}
+
+	/**
+	 * Get the current statistics of the pool for a store name.
+	 *
+	 * @param storeName
+	 * @return
+	 */
+	public Statistics statistics(String storeName) {
+		return pool(storeName).statistics();
+	}
+
+	private StorePool pool(String storeName) {
+		return pools.computeIfAbsent(storeName, name -> new StorePool());
+	}
+
+	private static boolean isHealthy(Store store) {
+		try {
+			return store.isConnected();
+		} catch (Exception e) {
+			LOG.debug("Pooled connection is not healthy.", e);
+			return false;
+		}
+	}
+
+	private void closeQuietly(String storeName, Store store) {
+		folders.remove(store);
+		try {
+			store.close();
+		} catch (Exception e) {
+			LOG.info("Ignoring exception while closing pooled connection of store {0}.", e, storeName);
+		}
+	}
+
+	/**
+	 * Creates a new connected store.
+	 */
+	@FunctionalInterface
+	interface StoreConnector {
+		Store connect() throws Exception;
+	}
+
+	/**
+	 * Statistics of the pool of a single store name.
+	 */
+	public static class Statistics {
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+		private final int idle;
+		private final int leased;
+
+		private Statistics(long hits, long misses, long evictions, int idle, int leased) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.idle = idle;
+			this.leased = leased;
+		}
+
+		/**
+		 * @return number of requests served by a pooled connection
+		 */
+		public long getHits() {
+			return hits;
+		}
+
+		/**
+		 * @return number of requests which needed a new connection
+		 */
+		public long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * @return number of pooled connections closed because they were idle too long or not healthy
+		 */
+		public long getEvictions() {
+			return evictions;
+		}
+
+		/**
+		 * @return number of connections currently waiting in the pool
+		 */
+		public int getIdle() {
+			return idle;
+		}
+
+		/**
+		 * @return number of connections currently in use
+		 */
+		public int getLeased() {
+			return leased;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Statistics[hits: %d, misses: %d, evictions: %d, idle: %d, leased: %d]",
+					hits, misses, evictions, idle, leased);
+		}
+	}
+
+	private static class IdleStore {
+		private final Store store;
+		private final long generation;
+		private final long since;
+
+		private IdleStore(Store store, long generation, long since) {
+			this.store = store;
+			this.generation = generation;
+			this.since = since;
+		}
+	}
+
+	private static class StorePool {
+		private final Deque<IdleStore> idle = new ArrayDeque<>();
+		private final Map<Store, Long> borrowed = new IdentityHashMap<>();
+		private long generation;
+		private int maxSize;
+		private int maxLeased;
+		private long idleTimeoutMillis;
+		private int leased;
+		private long hits;
+		private long misses;
+		private long evictions;
+
+		private synchronized void configure(int maxSize, int maxLeased, long idleTimeoutMillis) {
+			this.maxSize = maxSize;
+			this.maxLeased = maxLeased;
+			this.idleTimeoutMillis = idleTimeoutMillis;
+		}
+
+		/**
+		 * Count a store as leased, waiting while the maximum number is in use.
+		 *
+		 * @return <code>false</code> if the maximum number was still in use after the wait time
+		 */
+		private synchronized boolean lease(long maxWaitMillis) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + maxWaitMillis;
+			while(maxLeased > 0 && leased >= maxLeased) {
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0) {
+					return false;
+				}
+				wait(remaining);
+			}
+			leased++;
+			return true;
+		}
+
+		private synchronized IdleStore pollIdle() {
+			return idle.pollFirst();
+		}
+
+		private synchronized long generation() {
+			return generation;
+		}
+
+		private synchronized Store borrowed(Store store, long storeGeneration) {
+			borrowed.put(store, storeGeneration);
+			return store;
+		}
+
+		/**
+		 * Forget a borrowed store.
+		 *
+		 * @return the generation in which the store was borrowed
+		 */
+		private synchronized long returned(Store store) {
+			Long storeGeneration = borrowed.remove(store);
+			return storeGeneration != null ? storeGeneration : generation;
+		}
+
+		/**
+		 * Keep a returned store, unless the pool is full or the store was borrowed before the pool was cleared.
+		 */
+		private synchronized boolean offerIdle(Store store, long storeGeneration, List<Store> toClose) {
+			toClose.addAll(removeExpired());
+			if(storeGeneration != generation || idle.size() >= maxSize) {
+				return false;
+			}
+			idle.addFirst(new IdleStore(store, generation, System.currentTimeMillis()));
+			return true;
+		}
+
+		private synchronized boolean isExpired(IdleStore store) {
+			return System.currentTimeMillis() - store.since > idleTimeoutMillis;
+		}
+
+		private synchronized List<Store> removeExpired() {
+			List<Store> expired = new ArrayList<>();
+			for (Iterator<IdleStore> it = idle.iterator(); it.hasNext();) {
+				IdleStore store = it.next();
+				if(isExpired(store)) {
+					it.remove();
+					evictions++;
+					expired.add(store.store);
+				}
+			}
+			return expired;
+		}
+
+		private synchronized List<Store> removeAll() {
+			generation++;
+			List<Store> all = new ArrayList<>();
+			for (IdleStore store : idle) {
+				all.add(store.store);
+			}
+			idle.clear();
+			return all;
+		}
+
+		private synchronized void hit() {
+			hits++;
+		}
+
+		private synchronized void miss() {
+			misses++;
+		}
+
+		private synchronized void evicted() {
+			evictions++;
+		}
+
+		private synchronized void leased(int delta) {
+			leased = Math.max(0, leased + delta);
+			notifyAll();
+		}
+
+		private synchronized Statistics statistics() {
+			return new Statistics(hits, misses, evictions, idle.size(), leased);
+		}
+	}
+}
@@ -1,42 +1,85 @@
 package com.axonivy.connector.mailstore;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
 import javax.mail.FetchProfile;
+import javax.mail.Flags;
 import javax.mail.Flags.Flag;
 import javax.mail.Folder;
+import javax.mail.FolderNotFoundException;
 import javax.mail.Message;
 import javax.mail.Message.RecipientType;
 import javax.mail.MessagingException;
 import javax.mail.Part;
 import javax.mail.Session;
 import javax.mail.Store;
+import javax.mail.UIDFolder;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+import javax.mail.search.AndTerm;
+import javax.mail.search.ComparisonTerm;
+import javax.mail.search.FlagTerm;
+import javax.mail.search.FromStringTerm;
+import javax.mail.search.HeaderTerm;
+import javax.mail.search.OrTerm;
+import javax.mail.search.ReceivedDateTerm;
+import javax.mail.search.RecipientStringTerm;
+import javax.mail.search.SearchTerm;
+import javax.mail.search.SentDateTerm;
+import javax.mail.search.SizeTerm;
+import javax.mail.search.SubjectTerm;
+import javax.mail.util.SharedFileInputStream;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 
+import com.axonivy.connector.mailstore.cache.MessageCache;
+import com.axonivy.connector.mailstore.checkpoint.Checkpoint;
+import com.axonivy.connector.mailstore.checkpoint.CheckpointStore;
 import com.axonivy.connector.mailstore.enums.MailMovingMethod;
 import com.axonivy.connector.mailstore.provider.BasicUserPasswordProvider;
 import com.axonivy.connector.mailstore.provider.UserPasswordProvider;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPMessage;
+import com.sun.mail.imap.IMAPStore;
+import com.sun.mail.imap.SortTerm;
 
 import ch.ivyteam.ivy.bpm.error.BpmError;
 import ch.ivyteam.ivy.bpm.error.BpmPublicErrorBuilder;
@@ -47,13 +90,20 @@ public class MailStoreService {
 	private static final MailStoreService INSTANCE = new MailStoreService();
 	static final Logger LOG = Ivy.log();
 	static final String MAIL_STORE_VAR = "mailstoreConnector";
-	private static final String PROTOCOL_VAR = "protocol";
-	private static final String HOST_VAR = "host";
-	private static final String PORT_VAR = "port";
-	private static final String DEBUG_VAR = "debug";
-	private static final String MOVING_METHOD_VAR = "movingMethod";
+	private static final String POOL_SIZE_VAR = "poolSize";
+	private static final String POOL_IDLE_TIMEOUT_VAR = "poolIdleTimeout";
+	private static final String POOL_MAX_CONNECTIONS_VAR = "poolMaxConnections";
+	private static final String POOL_MAX_WAIT_VAR = "poolMaxWait";
+	private static final int DEFAULT_POOL_SIZE = 2;
+	private static final long DEFAULT_POOL_IDLE_TIMEOUT_SECONDS = 300;
+	private static final long DEFAULT_POOL_MAX_WAIT_SECONDS = 30;
+	private static final String DEBUG_MAX_LINE_LENGTH_VAR = "debugMaxLineLength";
+	private static final String HANDLER_CONCURRENCY_VAR = "handlerConcurrency";
+	private static final int DEFAULT_HANDLER_CONCURRENCY = 1;
+	private static final String SORT_CAPABILITY = "SORT";
 	private static final String ERROR_BASE = "mailstore:connector";
-	private static final Address[] EMPTY_ADDRESSES = new Address[0];
+	private static final String TEXT_SEPARATORS = " \t\r\n";
+	private static final String ADDRESS_SEPARATORS = " \t\r\n<>\"(),;:";
 	private static Map<String, UserPasswordProvider> userPasswordProviderRegister = new HashMap<>();
 
 	public static MailStoreService get() {
@@ -90,7 +140,11 @@ public class MailStoreService {
 	 */
 	public static MessageIterator messageIterator(String storeName, String srcFolderName, String dstFolderName,
 			boolean delete, Predicate<Message> filter, Comparator<Message> comparator) {
-		return new MessageIterator(storeName, srcFolderName, Arrays.asList(dstFolderName), delete, filter, comparator);
+		return messageIterator(storeName, srcFolderName, MessageIteratorOptions.create()
+				.withDstFolderNames(Arrays.asList(dstFolderName))
+				.withDelete(delete)
+				.withFilter(filter)
+				.withComparator(comparator));
 	}
 	
 	/**
@@ -107,9 +161,66 @@ public class MailStoreService {
 	 */
 	public static MessageIterator messageIterator(String storeName, String srcFolderName, 
 			boolean delete, Predicate<Message> filter, Comparator<Message> comparator, List<String> dstFolderNames) {
-		return new MessageIterator(storeName, srcFolderName, dstFolderNames, delete, filter, comparator);
+		return messageIterator(storeName, srcFolderName, MessageIteratorOptions.create()
+				.withDstFolderNames(dstFolderNames)
+				.withDelete(delete)
+				.withFilter(filter)
+				.withComparator(comparator));
+	}
+
+	/**
+	 * Get a {@link MessageIterator}.
+	 * 
+	 * @param storeName     name of Email Store (Imap Configuration)
+	 * @param srcFolderName source folder name
+	 * @param options       destination folders, filter, sort and further options
+	 * @return
+	 */
+	public static MessageIterator messageIterator(String storeName, String srcFolderName, MessageIteratorOptions options) {
+		return new MessageIterator(storeName, srcFolderName, options);
 	}
 	
+	/**
+	 * Handle all messages of a folder with a Java handler.
+	 * 
+	 * The handler is called for up to <code>handlerConcurrency</code> (store variable, default 1)
+	 * messages at the same time on virtual threads. The connection to the store is only used by the
+	 * calling thread, which downloads the messages and moves/deletes the handled messages in the
+	 * order of the iterator. With a concurrency greater than 1, the handler gets a copy of the message,
+	 * which does not belong to a folder, and runs without the Ivy context of the caller.
+	 * 
+	 * @param storeName     name of Email Store (Imap Configuration)
+	 * @param srcFolderName source folder name
+	 * @param options       destination folders, filter, sort and further options
+	 * @param handler       handles a single message
+	 * @return number of handled messages
+	 */
+	public static int handleMessages(String storeName, String srcFolderName, MessageIteratorOptions options, MessageHandler handler) {
+		int concurrency = NumberUtils.toInt(MailStoreConfig.get(storeName).variable(HANDLER_CONCURRENCY_VAR), DEFAULT_HANDLER_CONCURRENCY);
+		try (MessageIterator iterator = messageIterator(storeName, srcFolderName, options)) {
+			return iterator.handleAll(handler, concurrency);
+		}
+	}
+
+	/**
+	 * Get a {@link MailStoreListener}, which hands new messages of a folder to a handler as soon as they arrive.
+	 * 
+	 * The listener starts listening when its {@link MailStoreListener#run()} function is called
+	 * and blocks the calling thread until {@link MailStoreListener#close()} is called.
+	 * 
+	 * @param storeName     name of Email Store (Imap Configuration)
+	 * @param srcFolderName source folder name
+	 * @param dstFolderName destination folder name (if <code>null</code> then handled mails will be deleted)
+	 * @param delete        delete mail from source folder?
+	 * @param filter        a filter predicate
+	 * @param handler       handler of new messages
+	 * @return
+	 */
+	public static MailStoreListener listener(String storeName, String srcFolderName, String dstFolderName,
+			boolean delete, Predicate<Message> filter, MessageHandler handler) {
+		return new MailStoreListener(storeName, srcFolderName, dstFolderName, delete, filter, handler);
+	}
+
 	/**
 	 * Get a {@link Predicate} to match subjects against a regular expression.
 	 * 
@@ -126,13 +237,15 @@ public class MailStoreService {
 	 */
 	public static Predicate<Message> subjectMatches(String pattern) {
 		Pattern subjectPattern = createStandardPattern(pattern);
-		return m -> {
+		String literal = MessageFilter.requiredLiteral(pattern, TEXT_SEPARATORS);
+		return new MessageFilter(m -> {
 			try {
-				return subjectPattern.matcher(nullSafe(m.getSubject(), "")).matches();
+				// read only the subject header instead of the whole envelope
+				return subjectPattern.matcher(nullSafe(decodedHeader(m, "Subject"), "")).matches();
 			} catch (MessagingException e) {
 				throw buildError("predicate:subjectmatches").build();
 			}
-		};
+		}, literal != null ? new SubjectTerm(literal) : null, false, FetchProfiles.ofHeaders("Subject"));
 	}
 
 	/**
@@ -150,17 +263,18 @@ public class MailStoreService {
 	 */
 	public static Predicate<Message> fromMatches(String pattern) {
 		Pattern fromPattern = createStandardPattern(pattern);
-		return m -> {
+		String literal = MessageFilter.requiredLiteral(pattern, ADDRESS_SEPARATORS);
+		return new MessageFilter(m -> {
 			try {
 				boolean result = false;
-				for(Address address : nullSafe(m.getFrom(), EMPTY_ADDRESSES)) {
-					result = fromPattern.matcher(address.toString()).matches();
+				for(String address : MessageAnalysis.of(m).addresses("From", m::getFrom)) {
+					result = fromPattern.matcher(address).matches();
 				}
 				return result;
 			} catch (MessagingException e) {
 				throw buildError("predicate:frommatches").build();
 			}
-		};
+		}, literal != null ? new FromStringTerm(literal) : null, false, FetchProfiles.of(FetchProfile.Item.ENVELOPE));
 	}
 
 	/**
@@ -218,11 +332,12 @@ public class MailStoreService {
 
 	private static Predicate<Message> rcptMatches(RecipientType recipientType, String pattern, String errorCode) {
 		Pattern rcptPattern = createStandardPattern(pattern);
-		return m -> {
+		String literal = MessageFilter.requiredLiteral(pattern, ADDRESS_SEPARATORS);
+		return new MessageFilter(m -> {
 			try {
 				boolean result = false;
-				for(Address address : nullSafe(m.getRecipients(recipientType), EMPTY_ADDRESSES)) {
-					if(rcptPattern.matcher(address.toString()).matches()) {
+				for(String address : MessageAnalysis.of(m).addresses(recipientType, () -> m.getRecipients(recipientType))) {
+					if(rcptPattern.matcher(address).matches()) {
 						result = true;
 						break;
 					}
@@ -231,7 +346,7 @@ public class MailStoreService {
 			} catch (MessagingException e) {
 				throw buildError("predicate:" + errorCode).build();
 			}
-		};
+		}, literal != null ? new RecipientStringTerm(recipientType, literal) : null, false, FetchProfiles.of(FetchProfile.Item.ENVELOPE));
 	}
 
 	/**
@@ -249,11 +364,19 @@ public class MailStoreService {
 	 */
 	public static Predicate<Message> anyRecipientMatches(String pattern) {
 		Pattern rcptPattern = createStandardPattern(pattern);
-		return m -> {
+		String literal = MessageFilter.requiredLiteral(pattern, ADDRESS_SEPARATORS);
+		SearchTerm searchTerm = null;
+		if(literal != null) {
+			searchTerm = new OrTerm(new SearchTerm[] {
+					new RecipientStringTerm(RecipientType.TO, literal),
+					new RecipientStringTerm(RecipientType.CC, literal),
+					new RecipientStringTerm(RecipientType.BCC, literal)});
+		}
+		return new MessageFilter(m -> {
 			try {
 				boolean result = false;
-				for(Address address : nullSafe(m.getAllRecipients(), EMPTY_ADDRESSES)) {
-					if(rcptPattern.matcher(address.toString()).matches()) {
+				for(String address : MessageAnalysis.of(m).addresses("AllRecipients", m::getAllRecipients)) {
+					if(rcptPattern.matcher(address).matches()) {
 						result = true;
 						break;
 					}
@@ -263,7 +386,7 @@ public class MailStoreService {
 			} catch (MessagingException e) {
 				throw buildError("predicate:frommatches").build();
 			}
-		};
+		}, searchTerm, false, FetchProfiles.of(FetchProfile.Item.ENVELOPE));
 	}
 
 	/**
@@ -281,7 +404,8 @@ public class MailStoreService {
 	 */
 	public static Predicate<Message> headerMatches(String headerName, String pattern) {
 		Pattern headerPattern = createStandardPattern(pattern);
-		return m -> {
+		String literal = MessageFilter.requiredLiteral(pattern, TEXT_SEPARATORS);
+		return new MessageFilter(m -> {
 			try {
 				boolean result = false;
 				for(String header : nullSafe(m.getHeader(headerName), new String[0])) {
@@ -295,7 +419,90 @@ public class MailStoreService {
 			} catch (MessagingException e) {
 				throw buildError("predicate:headermatches").build();
 			}
-		};
+		}, literal != null ? new HeaderTerm(headerName, literal) : null, false, FetchProfiles.ofHeaders(headerName));
+	}
+
+	/**
+	 * Get a {@link Predicate} to match messages received in a time range.
+	 * 
+	 * The range is searched on the server.
+	 * 
+	 * @param from received at or after, no lower bound if <code>null</code>
+	 * @param to received before, no upper bound if <code>null</code>
+	 * @return
+	 */
+	public static Predicate<Message> receivedBetween(Date from, Date to) {
+		return dateRange(from, to, ReceivedDateTerm::new, FetchProfiles.of(IMAPFolder.FetchProfileItem.INTERNALDATE));
+	}
+
+	/**
+	 * Get a {@link Predicate} to match messages sent in a time range.
+	 * 
+	 * The range is searched on the server.
+	 * 
+	 * @param from sent at or after, no lower bound if <code>null</code>
+	 * @param to sent before, no upper bound if <code>null</code>
+	 * @return
+	 */
+	public static Predicate<Message> sentBetween(Date from, Date to) {
+		return dateRange(from, to, SentDateTerm::new, FetchProfiles.of(FetchProfile.Item.ENVELOPE));
+	}
+
+	private static Predicate<Message> dateRange(Date from, Date to, BiFunction<Integer, Date, SearchTerm> termFactory, FetchProfile fetchProfile) {
+		List<SearchTerm> exact = new ArrayList<>();
+		List<SearchTerm> server = new ArrayList<>();
+		// IMAP searches dates by day in the timezone of the server, so the server range is widened by one day
+		if(from != null) {
+			exact.add(termFactory.apply(ComparisonTerm.GE, from));
+			server.add(termFactory.apply(ComparisonTerm.GE, new Date(from.getTime() - TimeUnit.DAYS.toMillis(1))));
+		}
+		if(to != null) {
+			exact.add(termFactory.apply(ComparisonTerm.LT, to));
+			server.add(termFactory.apply(ComparisonTerm.LT, new Date(to.getTime() + TimeUnit.DAYS.toMillis(1))));
+		}
+		if(exact.isEmpty()) {
+			return alwaysTrue();
+		}
+		SearchTerm exactTerm = exact.size() == 1 ? exact.get(0) : new AndTerm(exact.toArray(SearchTerm[]::new));
+		SearchTerm serverTerm = server.size() == 1 ? server.get(0) : new AndTerm(server.toArray(SearchTerm[]::new));
+		return new MessageFilter(exactTerm::match, serverTerm, false, fetchProfile);
+	}
+
+	/**
+	 * Get a {@link Predicate} to match messages with or without a flag.
+	 * 
+	 * The flag is searched on the server.
+	 * 
+	 * @param flag e.g. {@link Flag#SEEN}
+	 * @param set should the flag be set?
+	 * @return
+	 */
+	public static Predicate<Message> hasFlag(Flag flag, boolean set) {
+		return MessageFilter.of(new FlagTerm(new Flags(flag), set), FetchProfiles.of(FetchProfile.Item.FLAGS));
+	}
+
+	/**
+	 * Get a {@link Predicate} to match messages larger than a size.
+	 * 
+	 * The size is searched on the server.
+	 * 
+	 * @param size in bytes
+	 * @return
+	 */
+	public static Predicate<Message> sizeGreaterThan(int size) {
+		return MessageFilter.of(new SizeTerm(ComparisonTerm.GT, size), FetchProfiles.of(IMAPFolder.FetchProfileItem.SIZE));
+	}
+
+	/**
+	 * Get a {@link Predicate} to match messages smaller than a size.
+	 * 
+	 * The size is searched on the server.
+	 * 
+	 * @param size in bytes
+	 * @return
+	 */
+	public static Predicate<Message> sizeLessThan(int size) {
+		return MessageFilter.of(new SizeTerm(ComparisonTerm.LT, size), FetchProfiles.of(IMAPFolder.FetchProfileItem.SIZE));
 	}
 
 	/**
@@ -305,10 +512,9 @@ public class MailStoreService {
 	 * @return
 	 */
 	public static Predicate<Message> hasAttachment(boolean includeSubMessages) {
-		return m -> {
-			Collection<Part> parts = MessageService.getAllParts(m, includeSubMessages, MessageService.isAttachment());
-			return parts.size() > 0;
-		};
+		return requiring(m -> {
+			return MessageService.anyPartMatches(m, includeSubMessages, MessageService.isAttachment());
+		}, FetchProfiles.of(FetchProfile.Item.CONTENT_INFO));
 	}
 
 	/**
@@ -321,7 +527,7 @@ public class MailStoreService {
 	 * @return
 	 */
 	public static Predicate<Message> hasPart(String mimeType, String disposition, String filenamePattern, boolean includeSubMessages) {
-		return m -> {
+		return requiring(m -> {
 			Predicate<Part> p = MessageService.alwaysTrue();
 			if(mimeType != null) {
 				p = p.and(MessageService.isMimeType(mimeType));
@@ -333,9 +539,8 @@ public class MailStoreService {
 				p = p.and(MessageService.filenameMatches(filenamePattern));
 			}
 
-			Collection<Part> parts = MessageService.getAllParts(m, includeSubMessages, p);
-			return parts.size() > 0;
-		};
+			return MessageService.anyPartMatches(m, includeSubMessages, p);
+		}, FetchProfiles.of(FetchProfile.Item.CONTENT_INFO));
 	}
 
 	/**
@@ -344,7 +549,7 @@ public class MailStoreService {
 	 * @return
 	 */
 	public static Predicate<Message> alwaysTrue() {
-		return m -> true;
+		return requiring(m -> true, new FetchProfile());
 	}
 
 	/**
@@ -353,7 +558,25 @@ public class MailStoreService {
 	 * @return
 	 */
 	public static Predicate<Message> alwaysFalse() {
-		return m -> false;
+		return requiring(m -> false, new FetchProfile());
+	}
+
+	/**
+	 * Declare the items of a message read by an own predicate.
+	 * 
+	 * The {@link MessageIterator} fetches these items for all messages at once. Without
+	 * declaration, the {@link FetchProfile.Item#ENVELOPE} is fetched.
+	 * 
+	 * <pre>
+	 * requiring(m -&gt; m.getHeader("X-Priority") != null, FetchProfiles.ofHeaders("X-Priority"));
+	 * </pre>
+	 * 
+	 * @param predicate
+	 * @param fetchProfile items read by the predicate, see {@link FetchProfiles}
+	 * @return
+	 */
+	public static Predicate<Message> requiring(Predicate<Message> predicate, FetchProfile fetchProfile) {
+		return new MessageFilter(predicate, null, false, fetchProfile);
 	}
 
 	/**
@@ -374,19 +597,50 @@ public class MailStoreService {
 	 * Note that the {@link Iterator} will only close and return it's resources when it was
 	 * running to the end. If it is terminated earlier, the {@link #close()} method must be
 	 * called. It is not a problem, to call the close method on a closed object again.
+	 * 
+	 * With a {@link MessageIteratorOptions#withWindowSize(int) window size}, messages are
+	 * fetched, filtered and sorted in windows and the next window is loaded in the background
+	 * while the messages of the current window are handled.
 	 */
 	public static class MessageIterator implements Iterator<Message>, AutoCloseable {
+		private String storeName;
 		private Store store;
 		private Folder srcFolder;
 		private boolean delete;
+		private Predicate<Message> filter;
+		private Comparator<Message> comparator;
+		private boolean serverSorted;
+		private int windowSize;
+		private WindowSource source;
 		private Message[] messages;
 		private int nextIndex;
+		private Message current;
+		private ExecutorService prefetcher;
+		private Future<Message[]> prefetch;
+		private final Object folderLock = new Object();
 		private ClassLoader originalClassLoader;
-		private Map<String, Folder> dstFolderMap= new LinkedHashMap<>();;
+		private List<String> dstFolderNames = new ArrayList<>();
+		private Map<String, Folder> dstFolderMap = new HashMap<>();
 		private MailMovingMethod mailMovingMethod;
+		private MessageCommitter committer;
+		private MessageLeases leases;
+		private Message claimed;
+		private CheckpointStore checkpointStore;
+		private long uidValidity;
+		private long lastUid;
+		private long rangeHighestUid;
+		private volatile long loadedHighestUid;
+		private NavigableSet<Long> pendingUids;
+		private int maxMessages;
+		private long deadline;
+		private int delivered;
+		private boolean limitReached;
+		private boolean nextConfirmed;
+		private MessageCache cache;
+		private long cacheUidValidity;
+		private Message currentCopy;
 
-		private MessageIterator(String storeName, String srcFolderName, List<String> dstFolderNames, boolean delete,
-				Predicate<Message> filter, Comparator<Message> comparator) {
+		private MessageIterator(String storeName, String srcFolderName, MessageIteratorOptions options) {
 			try {
 				// Use own classloader so that internal classes of javax.mail API are found.
 				// If they cannot be found on the classpath, then mail content will not
@@ -394,39 +648,86 @@ public class MailStoreService {
 				originalClassLoader = Thread.currentThread().getContextClassLoader();
 				Thread.currentThread().setContextClassLoader(Session.class.getClassLoader());
 
-				this.delete = delete;
+				this.storeName = storeName;
+				this.delete = options.isDelete();
+				this.filter = options.getFilter();
+				this.comparator = options.getComparator();
+				this.checkpointStore = options.getCheckpointStore();
+				this.windowSize = options.getWindowSize() > 0 ? options.getWindowSize() : Integer.MAX_VALUE;
+				this.maxMessages = options.getMaxMessages() > 0 ? options.getMaxMessages() : Integer.MAX_VALUE;
+				if(options.getTimeBudget() != null) {
+					deadline = System.nanoTime() + options.getTimeBudget().toNanos();
+				}
 				store = MailStoreService.openStore(storeName);
 				srcFolder = MailStoreService.openFolder(store, srcFolderName, Folder.READ_WRITE);
-				mailMovingMethod = MailMovingMethod.from(getVar(storeName, MOVING_METHOD_VAR));
+				mailMovingMethod = MailStoreConfig.get(storeName).getMovingMethod();
+
+				if(options.getMessageCache() != null) {
+					if(srcFolder instanceof UIDFolder) {
+						cache = options.getMessageCache();
+						cacheUidValidity = ((UIDFolder) srcFolder).getUIDValidity();
+					}
+					else {
+						LOG.info("Folder {0} has no UIDs, messages are read from the server without cache.", srcFolderName);
+					}
+				}
 				
-				if(CollectionUtils.isNotEmpty(dstFolderNames)) {
-					for(String dstFolderName : dstFolderNames) {
+				if(CollectionUtils.isNotEmpty(options.getDstFolderNames())) {
+					for(String dstFolderName : options.getDstFolderNames()) {
 						if(StringUtils.isNotBlank(dstFolderName)) {
-							dstFolderMap.put(dstFolderName, MailStoreService.openFolder(store, dstFolderName, Folder.READ_WRITE));
-						}else {
-							dstFolderMap.put(dstFolderName, null);
+							// only checked here (once per pooled connection), opened when the first message is moved
+							MailStorePool.get().existingFolder(store, dstFolderName);
 						}
+						dstFolderNames.add(dstFolderName);
 					}
 				}
-				
-				messages = srcFolder.getMessages();
 
-				// pre-fetch headers
-				FetchProfile fetchProfile = new FetchProfile();
-				fetchProfile.add(FetchProfile.Item.ENVELOPE);
-				srcFolder.fetch(messages, fetchProfile);
-
-				if(filter != null) {
-					messages = Stream.of(messages).filter(filter).toArray(Message[]::new);
+				if(options.getLeaseTime() != null) {
+					leases = MessageLeases.create(srcFolder, options.getLeaseTime());
 				}
-				
-				if (comparator != null) {
-					messages = Stream.of(messages).sorted(comparator).toArray(Message[]::new);
+				committer = new MessageCommitter(srcFolder, mailMovingMethod, delete, options.getBatchSize(), false, this::committed, leases);
+
+				Message[] range = null;
+				if(checkpointStore != null) {
+					range = messagesAfterCheckpoint();
+					pendingUids = new ConcurrentSkipListSet<>();
 				}
 
-				LOG.debug("Received {0}{1} messages.", messages.length, filter != null ? " matching" : "");
+				SearchTerm searchTerm = MailStoreConfig.get(storeName).isServerSearch() ? MessageFilter.searchTermOf(filter) : null;
+				SortTerm[] sortTerms = range == null ? serverSortTerms() : null;
+				if(sortTerms != null) {
+					// sort (and pre-select) on the server, the order is kept by windows and the filter
+					IMAPFolder imapFolder = (IMAPFolder) srcFolder;
+					Message[] sorted = searchTerm != null ? imapFolder.getSortedMessages(sortTerms, searchTerm) : imapFolder.getSortedMessages(sortTerms);
+					LOG.debug("Server sort returned {0} messages.", sorted.length);
+					serverSorted = true;
+					source = new ArrayWindowSource(sorted);
+				}
+				else if(searchTerm != null && srcFolder instanceof IMAPFolder) {
+					// pre-select on the server, the filter still decides about every found message
+					Message[] found;
+					if(range == null) {
+						found = srcFolder.search(searchTerm);
+					}
+					else {
+						found = range.length > 0 ? srcFolder.search(searchTerm, range) : range;
+					}
+					LOG.debug("Server search found {0} candidate messages.", found.length);
+					source = new ArrayWindowSource(found);
+				}
+				else if(range != null) {
+					source = new ArrayWindowSource(range);
+				}
+				else {
+					source = new FolderWindowSource();
+				}
 
+				messages = loadWindow();
 				nextIndex = 0;
+				if(windowSize != Integer.MAX_VALUE) {
+					prefetcher = Executors.newSingleThreadExecutor(Thread.ofPlatform().daemon().name("mailstore-prefetch-", 0).factory());
+					prefetchWindow();
+				}
 			} catch(Exception e) {
 				try {
 					close();
@@ -438,6 +739,267 @@ public class MailStoreService {
 			}
 		}
 
+		/**
+		 * Get the terms to sort on the server.
+		 * 
+		 * @return the terms or <code>null</code> if the comparator cannot be executed by the server
+		 * @throws MessagingException
+		 */
+		private SortTerm[] serverSortTerms() throws MessagingException {
+			if(!(comparator instanceof MessageSort) || !(srcFolder instanceof IMAPFolder)
+					|| !((IMAPStore) srcFolder.getStore()).hasCapability(SORT_CAPABILITY)) {
+				return null;
+			}
+			return ((MessageSort) comparator).getSortTerms();
+		}
+
+		/**
+		 * Load the checkpoint and get the messages which arrived after it.
+		 * 
+		 * @return
+		 * @throws MessagingException
+		 */
+		private Message[] messagesAfterCheckpoint() throws MessagingException {
+			if(!(srcFolder instanceof UIDFolder)) {
+				throw new MessagingException("Incremental iteration needs a folder with UIDs, folder " + srcFolder.getFullName() + " has none.");
+			}
+			UIDFolder uidFolder = (UIDFolder) srcFolder;
+			uidValidity = uidFolder.getUIDValidity();
+			Checkpoint checkpoint = checkpointStore.load(storeName, srcFolder.getFullName());
+
+			Message[] range;
+			if(checkpoint != null && checkpoint.getUidValidity() == uidValidity) {
+				lastUid = checkpoint.getLastUid();
+				range = uidFolder.getMessagesByUID(lastUid + 1, UIDFolder.MAXUID);
+			}
+			else {
+				if(checkpoint != null) {
+					LOG.info("UIDVALIDITY of folder {0} changed from {1} to {2}, reading all messages again.",
+							srcFolder.getFullName(), checkpoint.getUidValidity(), uidValidity);
+				}
+				lastUid = 0;
+				range = srcFolder.getMessages();
+				FetchProfile fetchProfile = new FetchProfile();
+				fetchProfile.add(UIDFolder.FetchProfileItem.UID);
+				srcFolder.fetch(range, fetchProfile);
+			}
+
+			// the UID range "n:*" always contains the last message, even if its UID is lower than n
+			List<Message> newMessages = new ArrayList<>();
+			rangeHighestUid = lastUid;
+			loadedHighestUid = lastUid;
+			for (Message message : range) {
+				long uid = uidFolder.getUID(message);
+				if(uid > lastUid) {
+					newMessages.add(message);
+					rangeHighestUid = Math.max(rangeHighestUid, uid);
+				}
+			}
+			LOG.debug("{0} messages after {1} in folder {2}", newMessages.size(), checkpoint, srcFolder.getFullName());
+			return newMessages.toArray(Message[]::new);
+		}
+
+		/**
+		 * Fetch, filter and sort the next window of messages.
+		 * 
+		 * @return the messages or <code>null</code> if there are no more messages
+		 * @throws MessagingException
+		 */
+		private Message[] loadWindow() throws MessagingException {
+			return selectWindow(fetchWindow());
+		}
+
+		/**
+		 * Get the next window of candidates and fetch what the filter reads.
+		 * 
+		 * This only uses the folder, so it can run in the background. It does not overlap with
+		 * commits, which may expunge messages and change the message numbers of the folder.
+		 * 
+		 * @return the candidates or <code>null</code> if there are no more messages
+		 * @throws MessagingException
+		 */
+		private Message[] fetchWindow() throws MessagingException {
+			synchronized (folderLock) {
+				Message[] window = source.nextWindow();
+				if(window == null) {
+					return null;
+				}
+				FetchProfile fetchProfile = FetchProfiles.requiredBy(filter);
+				if(pendingUids != null || cache != null || leases != null) {
+					fetchProfile = FetchProfiles.merge(fetchProfile, FetchProfiles.of(UIDFolder.FetchProfileItem.UID));
+				}
+				if(cache != null && fetchProfile.contains(FetchProfile.Item.CONTENT_INFO)) {
+					// structures of messages seen before are in the cache, only the others are fetched
+					srcFolder.fetch(window, FetchProfiles.without(fetchProfile, FetchProfile.Item.CONTENT_INFO));
+					Message[] unknown = Stream.of(window).filter(message -> !cachedStructure(message)).toArray(Message[]::new);
+					if(unknown.length > 0) {
+						srcFolder.fetch(unknown, FetchProfiles.of(FetchProfile.Item.CONTENT_INFO));
+					}
+				}
+				else if(!FetchProfiles.isEmpty(fetchProfile)) {
+					srcFolder.fetch(window, fetchProfile);
+				}
+				return window;
+			}
+		}
+
+		/**
+		 * Filter and sort fetched candidates.
+		 * 
+		 * This runs the filter and the comparator, so it always runs in the thread of the caller,
+		 * which has the Ivy context.
+		 * 
+		 * @param window the candidates or <code>null</code> if there are no more messages
+		 * @return the messages or <code>null</code> if there are no more messages
+		 * @throws MessagingException
+		 */
+		private Message[] selectWindow(Message[] window) throws MessagingException {
+			if(window == null) {
+				// all messages of the range were seen, including the ones not found by the server search
+				loadedHighestUid = Math.max(loadedHighestUid, rangeHighestUid);
+				return null;
+			}
+
+			if(pendingUids != null) {
+				UIDFolder uidFolder = (UIDFolder) srcFolder;
+				long highest = loadedHighestUid;
+				for (Message message : window) {
+					highest = Math.max(highest, uidFolder.getUID(message));
+				}
+				loadedHighestUid = highest;
+			}
+
+			if(filter != null) {
+				window = Stream.of(window).filter(message -> {
+					boolean accepted = filter.test(message);
+					if(!accepted) {
+						// analysis results are only kept for messages which are handed out
+						MessageAnalysis.drop(message);
+					}
+					return accepted;
+				}).toArray(Message[]::new);
+			}
+
+			// pre-fetch what the comparator reads and the envelope, which is typically read by the handler,
+			// only for the remaining messages, messages which have the items already are skipped
+			if(window.length > 0) {
+				FetchProfile sortProfile = serverSorted ? new FetchProfile() : FetchProfiles.requiredBy(comparator);
+				srcFolder.fetch(window, FetchProfiles.merge(sortProfile, FetchProfiles.of(FetchProfile.Item.ENVELOPE)));
+			}
+
+
+			// all matching messages are pending, including the ones cut by the sort below,
+			// so the checkpoint never passes a message which was not handed out
+			if(pendingUids != null) {
+				for (Message message : window) {
+					pendingUids.add(((UIDFolder) srcFolder).getUID(message));
+				}
+			}
+			
+			// a window never hands out more than the maximum number of messages, so only these are sorted
+			if (comparator != null && !serverSorted) {
+				if (comparator instanceof MessageSort) {
+					window = ((MessageSort) comparator).sort(window, maxMessages);
+				} else {
+					window = MessageSort.first(window, comparator, maxMessages);
+				}
+			}
+
+			LOG.debug("Received {0}{1} messages.", window.length, filter != null ? " matching" : "");
+			return window;
+		}
+
+		/**
+		 * Start loading the next window in the background.
+		 */
+		private void prefetchWindow() {
+			prefetch = prefetcher.submit(() -> {
+				Thread.currentThread().setContextClassLoader(Session.class.getClassLoader());
+				return fetchWindow();
+			});
+		}
+
+		/**
+		 * Get the next window, which was either prefetched or is loaded now.
+		 * 
+		 * @return
+		 */
+		private Message[] nextWindow() {
+			try {
+				Message[] window;
+				if(prefetch != null) {
+					Message[] fetched = prefetch.get();
+					prefetch = null;
+					if(fetched != null) {
+						prefetchWindow();
+					}
+					window = selectWindow(fetched);
+				}
+				else {
+					window = loadWindow();
+				}
+				return window;
+			} catch (Exception e) {
+				try {
+					close();
+				}
+				catch(Exception closeException) {
+					LOG.info("Ignoring exception in close that happened during handling of iterator exception.", closeException);
+				}
+				throw buildError("iterator").withCause(e instanceof ExecutionException ? e.getCause() : e).build();
+			}
+		}
+
+		/**
+		 * Free the headers of a handled window.
+		 * 
+		 * @param window
+		 */
+		private void releaseWindow(Message[] window) {
+			if(windowSize != Integer.MAX_VALUE) {
+				for (Message message : window) {
+					if(message instanceof IMAPMessage) {
+						((IMAPMessage) message).invalidateHeaders();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Save the position up to which all messages were either filtered or handled.
+		 */
+		private void saveCheckpoint() {
+			long processedUid = pendingUids.isEmpty() ? loadedHighestUid : Math.min(loadedHighestUid, pendingUids.first() - 1);
+			if(processedUid > lastUid || lastUid == 0) {
+				Checkpoint checkpoint = new Checkpoint(uidValidity, processedUid);
+				LOG.debug("Saving {0} of folder {1}", checkpoint, srcFolder.getFullName());
+				checkpointStore.save(storeName, srcFolder.getFullName(), checkpoint);
+			}
+			pendingUids = null;
+		}
+
+		/**
+		 * Stop loading windows in the background.
+		 */
+		private void stopPrefetch() {
+			if(prefetcher != null) {
+				if(prefetch != null) {
+					prefetch.cancel(false);
+					prefetch = null;
+				}
+				prefetcher.shutdown();
+				try {
+					// a running fetch must not overlap with closing the folder
+					if(!prefetcher.awaitTermination(1, TimeUnit.MINUTES)) {
+						LOG.warn("Background fetch of folder {0} did not stop in time.", srcFolder);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				prefetcher = null;
+			}
+		}
+
 		/**
 		 * Close and sync all actions to the mail server.
 		 * 
@@ -447,7 +1009,28 @@ public class MailStoreService {
 		@Override
 		public void close() {
 			try {
+				stopPrefetch();
+				if(nextConfirmed && leases != null && claimed != null && claimed != current && srcFolder != null && srcFolder.isOpen()) {
+					// claimed by hasNext, but not handed out anymore
+					releaseQuietly(claimed);
+				}
+				nextConfirmed = false;
+				releaseCopy(currentCopy);
+				currentCopy = null;
+				messages = null;
 				Exception exception = null;
+				if (committer != null && srcFolder != null && srcFolder.isOpen()) {
+					try {
+						committer.flush();
+					} catch (Exception e) {
+						LOG.error("Could not commit handled messages of folder {0}", e, srcFolder);
+						exception = e;
+					}
+				}
+				if (leases != null) {
+					// leases of messages which were not committed stay on the server until they expire
+					leases.close();
+				}
 				for (Folder dstFolder : dstFolderMap.values()) {
 		            if (dstFolder != null && dstFolder.isOpen()) {
 						try {
@@ -462,7 +1045,19 @@ public class MailStoreService {
 		        }
 				if (srcFolder != null && srcFolder.isOpen()) {
 					try {
-						srcFolder.close();
+						// only own deleted messages are expunged, the whole folder only if the server cannot do that
+						boolean expunge = false;
+						if (committer != null) {
+							try {
+								expunge = committer.expungeFlagged();
+							} catch (Exception e) {
+								LOG.error("Could not expunge deleted messages of folder {0}", e, srcFolder);
+								if (exception == null) {
+									exception = e;
+								}
+							}
+						}
+						srcFolder.close(expunge);
 					} catch (Exception e) {
 						LOG.error("Could not close source folder {0}", e, srcFolder);
 						if (exception == null) {
@@ -470,15 +1065,22 @@ public class MailStoreService {
 						}
 					}
 				}
-				if (store != null) {
+				if (exception == null && pendingUids != null) {
 					try {
-						store.close();
+						saveCheckpoint();
 					} catch (Exception e) {
-						LOG.error("Could not close store {0}", e, srcFolder);
-						if (exception == null) {
-							exception = e;
-						}
+						LOG.error("Could not save checkpoint of folder {0}", e, srcFolder);
+						exception = e;
+					}
+				}
+				if (store != null) {
+					// Only connections without problems go back to the pool.
+					if (exception == null) {
+						MailStoreService.releaseStore(storeName, store);
+					} else {
+						MailStorePool.get().invalidate(storeName, store);
 					}
+					store = null;
 				}
 				if (exception != null) {
 					throw buildError("close").withCause(exception).build();
@@ -490,21 +1092,204 @@ public class MailStoreService {
 
 		@Override
 		public boolean hasNext() {
-			boolean hasNext = messages.length > nextIndex;
+			boolean hasNext = hasMore();
 			if(!hasNext) {
 				close();
 			}
 			return hasNext;
 		}
 
+		/**
+		 * Are there more messages? Loads the next window if needed, but does not close the iterator.
+		 * 
+		 * @return
+		 */
+		private boolean hasMore() {
+			// a confirmed message is handed out, even if the time budget ends before it is taken
+			if(nextConfirmed) {
+				return true;
+			}
+			if(isLimitReached()) {
+				return false;
+			}
+			while(true) {
+				while(messages != null && nextIndex >= messages.length) {
+					releaseWindow(messages);
+					messages = nextWindow();
+					nextIndex = 0;
+				}
+				if(messages == null || leases == null || claimed == messages[nextIndex]) {
+					nextConfirmed = messages != null;
+					return nextConfirmed;
+				}
+				// only hand out messages which are not handled by another node
+				if(claim(messages[nextIndex])) {
+					claimed = messages[nextIndex];
+					nextConfirmed = true;
+					return true;
+				}
+				nextIndex += 1;
+			}
+		}
+
+		/**
+		 * Was the maximum number of messages handed out or the time budget used up?
+		 * 
+		 * @return
+		 */
+		private boolean isLimitReached() {
+			if(!limitReached && messages != null) {
+				if(delivered >= maxMessages) {
+					LOG.info("Stopping iteration of folder {0} after {1} messages.", srcFolder, delivered);
+					limitReached = true;
+				}
+				else if(deadline != 0 && System.nanoTime() - deadline >= 0) {
+					LOG.info("Stopping iteration of folder {0} after {1} messages, the time budget is used up.", srcFolder, delivered);
+					limitReached = true;
+				}
+			}
+			return limitReached;
+		}
+
+		private void releaseQuietly(Message message) {
+			try {
+				leases.release(message);
+			} catch (Exception e) {
+				LOG.info("Ignoring exception while releasing the lease of an unhandled message.", e);
+			}
+		}
+
+		private boolean claim(Message message) {
+			try {
+				return leases.claim(message);
+			} catch (MessagingException e) {
+				try {
+					close();
+				}
+				catch(Exception closeException) {
+					LOG.info("Ignoring exception in close that happened during handling of iterator exception.", closeException);
+				}
+				throw buildError("lease").withCause(e).build();
+			}
+		}
+
 		@Override
 		public Message next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException("No more messages after index: " + nextIndex);
+			}
+			releaseCopy(currentCopy);
+			currentCopy = deliver(take());
+			return currentCopy;
+		}
+
+		private Message take() {
+			nextConfirmed = false;
+			current = messages[nextIndex];
+			nextIndex += 1;
+			delivered += 1;
+			return current;
+		}
+
+		/**
+		 * Get the message for the handler, which reads its content from the cache, if there is one.
+		 * 
+		 * The first time a message is handed out, the handler reads it from the server, so only the parts
+		 * it uses are downloaded. If it was not handled, its structure is cached. When the message comes
+		 * again, it is downloaded completely into the cache and read from there, also by later retries.
+		 * 
+		 * @param message the message in the folder
+		 * @return
+		 */
+		private Message deliver(Message message) {
+			if(cache == null) {
+				return message;
+			}
+			String folderName = srcFolder.getFullName();
 			try {
-				Message current = messages[nextIndex];
-				nextIndex += 1;
-				return current;
+				long uid = ((UIDFolder) srcFolder).getUID(message);
+				Path file = cache.get(storeName, folderName, cacheUidValidity, uid);
+				if(file == null) {
+					if(cache.getStructure(storeName, folderName, cacheUidValidity, uid) == null) {
+						return message;
+					}
+					LOG.debug("Downloading message {0} of folder {1} into the cache for a retry.", uid, folderName);
+					file = cache.put(storeName, folderName, cacheUidValidity, uid, message);
+				}
+				else {
+					LOG.debug("Reading message {0} of folder {1} from the cache.", uid, folderName);
+				}
+				SharedFileInputStream stream = new SharedFileInputStream(file.toFile());
+				try {
+					return new CachedMessage(MailStoreConfig.get(storeName).getSession(), stream, stream, message);
+				} catch (MessagingException e) {
+					stream.close();
+					throw e;
+				}
+			} catch (IOException | MessagingException e) {
+				LOG.warn("Could not read message {0} from the cache, reading it from the server.", e, MailStoreService.toString(message));
+				return message;
+			}
+		}
+
+		/**
+		 * Use the cached structure of a message for the filter.
+		 * 
+		 * @param message
+		 * @return was the structure in the cache?
+		 */
+		private boolean cachedStructure(Message message) {
+			try {
+				byte[] bytes = cache.getStructure(storeName, srcFolder.getFullName(), cacheUidValidity, ((UIDFolder) srcFolder).getUID(message));
+				PartDescriptor structure = bytes != null ? PartDescriptor.fromBytes(bytes) : null;
+				if(structure == null) {
+					return false;
+				}
+				MessageAnalysis.of(message).structure(structure);
+				return true;
+			} catch (IOException | MessagingException e) {
+				LOG.debug("Could not read the cached structure of message {0}: {1}", MailStoreService.toString(message), e.getMessage());
+				return false;
+			}
+		}
+
+		/**
+		 * Keep the structure of a message which was not handled, so the next iterator does not fetch it
+		 * and reads the message from the cache.
+		 * 
+		 * @param message
+		 */
+		private void cacheStructure(Message message) {
+			try {
+				byte[] structure = MessageAnalysis.of(message).structure(message).toBytes();
+				cache.putStructure(storeName, srcFolder.getFullName(), cacheUidValidity, ((UIDFolder) srcFolder).getUID(message), structure);
 			} catch (Exception e) {
-				throw new NoSuchElementException("Could not access message at index: " + nextIndex + " length: " + (messages != null ? messages.length : "null"), e);
+				LOG.info("Ignoring exception while caching the structure of a message which was not handled.", e);
+			}
+		}
+
+		/**
+		 * Close the cached copy of a message.
+		 * 
+		 * @param copy
+		 */
+		private static void releaseCopy(Message copy) {
+			if(copy instanceof FileMessage) {
+				MessageAnalysis.drop(copy);
+				((FileMessage) copy).close();
+			}
+		}
+
+		/**
+		 * Remove a handled message from the cache.
+		 * 
+		 * @param message
+		 */
+		private void uncache(Message message) {
+			try {
+				cache.remove(storeName, srcFolder.getFullName(), cacheUidValidity, ((UIDFolder) srcFolder).getUID(message));
+			} catch (IOException | MessagingException e) {
+				LOG.info("Ignoring exception while removing a handled message from the cache.", e);
 			}
 		}
 
@@ -520,60 +1305,275 @@ public class MailStoreService {
 			handledMessage(handled, null);
 		}
 		
-		private Folder getFirstEmailFolder() {
-			if(null == dstFolderMap) {
+		/**
+		 * Get a destination folder, opening it on first use.
+		 * 
+		 * Appending does not need an open folder, so it is not opened for {@link MailMovingMethod#APPEND}.
+		 * 
+		 * @param dstFolderName name of the folder, blank for the first destination folder
+		 * @return the folder or <code>null</code> if the message is not moved
+		 * @throws MessagingException
+		 */
+		private Folder dstFolder(String dstFolderName) throws MessagingException {
+			String name = StringUtils.isBlank(dstFolderName) && !dstFolderNames.isEmpty() ? dstFolderNames.get(0) : dstFolderName;
+			if(StringUtils.isBlank(name) || !dstFolderNames.contains(name)) {
 				return null;
 			}
-			return dstFolderMap.values().stream().collect(Collectors.toList()).get(0);
-		}		
+			Folder folder = dstFolderMap.get(name);
+			if(folder == null) {
+				folder = MailStorePool.get().existingFolder(store, name);
+				if(mailMovingMethod != MailMovingMethod.APPEND && !folder.isOpen()) {
+					LOG.debug("Opening folder {0}", name);
+					folder.open(Folder.READ_WRITE);
+				}
+				dstFolderMap.put(name, folder);
+			}
+			return folder;
+		}
 		
 		/**
 		 * Call this function, when the message was handled successfully and should be deleted/moved to a particular destination folder name
 		 * 
 		 * It will then be moved to the destination folder (if there is one)
 		 * and will be deleted in the source folder (if the delete option is set).
+		 * With a {@link MessageIteratorOptions#withBatchSize(int) batch size}, this happens together
+		 * with other handled messages when the batch is full or the iterator is closed.
 		 * If this function is not called, the message will be coming again in the
 		 * next iterator.
 		 */
 		public void handledMessage(boolean handled, String dstFolderName) {
+			releaseCopy(currentCopy);
+			currentCopy = null;
+			handledMessage(current, handled, dstFolderName);
+			if (!hasNext()) {
+				close();
+			}
+		}
+
+		private void handledMessage(Message message, boolean handled, String dstFolderName) {
+			if (!handled && cache != null) {
+				cacheStructure(message);
+			}
+			MessageAnalysis.drop(message);
 			String subject = null;
 			try {
 				if (handled) {
-					Message current = messages[nextIndex - 1];
-					subject = MailStoreService.toString(current);
-					try {
-						Folder dstFolder =
-								StringUtils.isBlank(dstFolderName) ? getFirstEmailFolder() : dstFolderMap.get(dstFolderName);
-						if (dstFolder != null) {
-							dstFolderName = dstFolder.getName();
-							LOG.debug("Appending {0} to {1} folder", subject, dstFolderName);
-							if (mailMovingMethod == MailMovingMethod.APPEND) {
-								dstFolderMap.get(dstFolderName).appendMessages(new Message[] {current});
-							} else {
-								srcFolder.copyMessages(new Message[] {current}, dstFolderMap.get(dstFolderName));
-							}
-						}
-					} finally {
-						if (delete) {
-							LOG.debug("Deleting {0}", MailStoreService.toString(current));
-							current.setFlag(Flag.DELETED, true);
-						}
+					subject = MailStoreService.toString(message);
+					if (cache != null) {
+						uncache(message);
+					}
+					synchronized (folderLock) {
+						committer.handled(message, dstFolder(dstFolderName));
 					}
+				} else if (leases != null) {
+					leases.release(message);
 				}
+			} catch (Exception e) {
+				LOG.error("Unable to handle email {0}", subject);
+				throw buildError("handled").withCause(e).build();
+			}
+		}
 
-				if (!hasNext()) {
-					close();
+		/**
+		 * Handle all remaining messages and close the iterator.
+		 * 
+		 * With a concurrency greater than 1, the handler runs on virtual threads for a copy of
+		 * the message. The messages are downloaded and committed by the calling thread in the
+		 * order of the iterator, so the connection is never used by more than one thread.
+		 * 
+		 * @param handler
+		 * @param concurrency maximum number of messages handled at the same time
+		 * @return number of handled messages
+		 */
+		public int handleAll(MessageHandler handler, int concurrency) {
+			int count = 0;
+			if(concurrency <= 1) {
+				while(hasNext()) {
+					Message message = next();
+					boolean handled = handle(handler, message);
+					handledMessage(handled);
+					count += handled ? 1 : 0;
+				}
+				return count;
+			}
+
+			Deque<HandlerTask> inFlight = new ArrayDeque<>();
+			ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+			try {
+				while(true) {
+					while(inFlight.size() < concurrency && hasMore()) {
+						Message message = take();
+						Message copy = detach(deliver(message));
+						inFlight.add(new HandlerTask(message, copy, workers.submit(() -> handle(handler, copy))));
+					}
+					HandlerTask task = inFlight.poll();
+					if(task == null) {
+						break;
+					}
+					boolean handled = task.await();
+					releaseCopy(task.copy);
+					handledMessage(task.message, handled, null);
+					count += handled ? 1 : 0;
 				}
+			} finally {
+				workers.shutdownNow();
+				inFlight.forEach(task -> releaseCopy(task.copy));
+				close();
+			}
+			return count;
+		}
+
+		private static boolean handle(MessageHandler handler, Message message) {
+			try {
+				return handler.handle(message);
 			} catch (Exception e) {
-				LOG.error("Unable to handle email {0}", subject);
+				LOG.error("Unable to handle email {0}", e, MailStoreService.toString(message));
+				return false;
+			} finally {
+				MessageAnalysis.drop(message);
+			}
+		}
+
+		/**
+		 * Download the message, so the handler does not use the connection of the iterator.
+		 * 
+		 * Messages from the cache read their content from the file.
+		 * 
+		 * @param message
+		 * @return
+		 */
+		private static Message detach(Message message) {
+			if(message instanceof FileMessage) {
+				return message;
+			}
+			try {
+				return message instanceof MimeMessage ? new MimeMessage((MimeMessage) message) : message;
+			} catch (MessagingException e) {
 				throw buildError("handled").withCause(e).build();
 			}
 		}
+
+		private static class HandlerTask {
+			private final Message message;
+			private final Message copy;
+			private final Future<Boolean> result;
+
+			private HandlerTask(Message message, Message copy, Future<Boolean> result) {
+				this.message = message;
+				this.copy = copy;
+				this.result = result;
+			}
+
+			private boolean await() {
+				try {
+					return result.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw buildError("handled").withCause(e).build();
+				} catch (ExecutionException e) {
+					return false;
+				}
+			}
+		}
+
+		/**
+		 * Messages were moved and deleted.
+		 * 
+		 * @param committed
+		 * @throws MessagingException
+		 */
+		private void committed(Message[] committed) throws MessagingException {
+			if (pendingUids != null) {
+				for (Message message : committed) {
+					pendingUids.remove(((UIDFolder) srcFolder).getUID(message));
+				}
+			}
+		}
+
+		/**
+		 * Delivers the candidate messages in windows.
+		 */
+		private interface WindowSource {
+			/**
+			 * @return the next window or <code>null</code> if there are no more messages
+			 * @throws MessagingException
+			 */
+			Message[] nextWindow() throws MessagingException;
+		}
+
+		/**
+		 * Windows over already selected messages, e.g. the result of a search.
+		 */
+		private class ArrayWindowSource implements WindowSource {
+			private final Message[] candidates;
+			private int start;
+
+			private ArrayWindowSource(Message[] candidates) {
+				this.candidates = candidates;
+			}
+
+			@Override
+			public Message[] nextWindow() {
+				if(start >= candidates.length) {
+					return null;
+				}
+				int end = (int) Math.min(candidates.length, (long) start + windowSize);
+				Message[] window = Arrays.copyOfRange(candidates, start, end);
+				start = end;
+				return window;
+			}
+		}
+
+		/**
+		 * Windows over the sequence numbers of the source folder.
+		 * 
+		 * Only the messages of the current window are requested from the folder. The next
+		 * window starts after the last message of the previous window, which is still in the
+		 * folder, so messages expunged by other clients do not shift the windows.
+		 */
+		private class FolderWindowSource implements WindowSource {
+			private Message[] previous;
+			private int previousStart = 1;
+			private boolean done;
+
+			@Override
+			public Message[] nextWindow() throws MessagingException {
+				if(done) {
+					return null;
+				}
+				if(windowSize == Integer.MAX_VALUE) {
+					// not windowed, take all messages at once
+					done = true;
+					return srcFolder.getMessages();
+				}
+				int start = previousStart;
+				if(previous != null) {
+					for (int i = previous.length - 1; i >= 0; i--) {
+						if(!previous[i].isExpunged()) {
+							start = previous[i].getMessageNumber() + 1;
+							break;
+						}
+					}
+				}
+				int count = srcFolder.getMessageCount();
+				if(start > count) {
+					done = true;
+					return null;
+				}
+				int end = (int) Math.min(count, (long) start + windowSize - 1);
+				previous = srcFolder.getMessages(start, end);
+				previousStart = start;
+				return previous;
+			}
+		}
 	}
 
 	/**
 	 * Get the raw message data e.g. for saving.
 	 * 
+	 * The whole message is kept in memory, use {@link #saveMessage(Message, int)} or
+	 * {@link #saveMessage(Message, Path)} for large messages.
+	 * 
 	 * @param message
 	 * @return
 	 */
@@ -586,6 +1586,57 @@ public class MailStoreService {
 		}
 		return new ByteArrayInputStream(bos.toByteArray());
 	}
+
+	/**
+	 * Get the raw message data e.g. for saving.
+	 * 
+	 * The message is kept in memory up to the threshold and in a temporary
+	 * file above it. Close the stream to delete the file.
+	 * 
+	 * @param message
+	 * @param memoryThreshold maximum number of bytes kept in memory
+	 * @return
+	 */
+	public static InputStream saveMessage(Message message, int memoryThreshold) {
+		SpillOutputStream spill = new SpillOutputStream(memoryThreshold);
+		try {
+			message.writeTo(spill);
+			return spill.toInputStream();
+		} catch (IOException | MessagingException e) {
+			spill.discard();
+			throw buildError("save").withCause(e).build();
+		}
+	}
+
+	/**
+	 * Write the raw message data to a stream.
+	 * 
+	 * The stream is not closed.
+	 * 
+	 * @param message
+	 * @param stream
+	 */
+	public static void saveMessage(Message message, OutputStream stream) {
+		try {
+			message.writeTo(stream);
+		} catch (IOException | MessagingException e) {
+			throw buildError("save").withCause(e).build();
+		}
+	}
+
+	/**
+	 * Write the raw message data to a file.
+	 * 
+	 * @param message
+	 * @param path the file, which is created or replaced
+	 */
+	public static void saveMessage(Message message, Path path) {
+		try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(path))) {
+			message.writeTo(stream);
+		} catch (IOException | MessagingException e) {
+			throw buildError("save").withCause(e).build();
+		}
+	}
 	
 	/**
 	 * Create a mail from raw message data e.g. from loading.
@@ -601,9 +1652,63 @@ public class MailStoreService {
 		}
 	}
 
+	/**
+	 * Create a mail from a file with raw message data.
+	 * 
+	 * The content is not copied into memory. The message and its parts read it from
+	 * the file when needed, so the file must not change while the message is used.
+	 * Close the message to close the file.
+	 * 
+	 * @param path
+	 * @return
+	 */
+	public static FileMessage loadMessage(Path path) {
+		SharedFileInputStream stream;
+		try {
+			stream = new SharedFileInputStream(path.toFile());
+		} catch (IOException e) {
+			throw buildError("load").withCause(e).build();
+		}
+		try {
+			return new FileMessage(MailSessionProvider.getSession(), stream, stream);
+		} catch (MessagingException e) {
+			try {
+				stream.close();
+			} catch (IOException closeException) {
+				e.addSuppressed(closeException);
+			}
+			throw buildError("load").withCause(e).build();
+		}
+	}
+
+	/**
+	 * Create a mail from raw message data in a file channel.
+	 * 
+	 * The file is mapped into memory from the current position of the channel up to its end.
+	 * The content is not copied into the heap. The mapping stays valid when the channel is closed
+	 * and is released when the message is garbage collected.
+	 * 
+	 * @param channel
+	 * @return
+	 */
+	public static FileMessage loadMessage(FileChannel channel) {
+		try {
+			long position = channel.position();
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, channel.size() - position);
+			return new FileMessage(MailSessionProvider.getSession(), new ByteBufferInputStream(buffer), null);
+		} catch (IOException | MessagingException e) {
+			throw buildError("load").withCause(e).build();
+		}
+	}
+
 	/**
 	 * Get a mail store.
 	 * 
+	 * The store is borrowed from the {@link MailStorePool}. Return it with
+	 * {@link #releaseStore(String, Store)} to make the connection available
+	 * for the next caller. A store which should not be reused can be closed,
+	 * but must still be returned, so it is not counted as in use anymore.
+	 * 
 	 * Note, that it is recommended to use {@link MessageIterator}.
 	 * 
 	 * @param storeName
@@ -611,12 +1716,41 @@ public class MailStoreService {
 	 * @throws MessagingException
 	 */
 	public static Store openStore(String storeName) throws Exception {
+		MailStoreConfig config = MailStoreConfig.get(storeName);
+		int poolSize = NumberUtils.toInt(config.variable(POOL_SIZE_VAR), DEFAULT_POOL_SIZE);
+		long idleTimeout = NumberUtils.toLong(config.variable(POOL_IDLE_TIMEOUT_VAR), DEFAULT_POOL_IDLE_TIMEOUT_SECONDS);
+		int maxConnections = NumberUtils.toInt(config.variable(POOL_MAX_CONNECTIONS_VAR), 0);
+		long maxWait = NumberUtils.toLong(config.variable(POOL_MAX_WAIT_VAR), DEFAULT_POOL_MAX_WAIT_SECONDS);
+		return MailStorePool.get().borrow(storeName, poolSize, maxConnections, TimeUnit.SECONDS.toMillis(maxWait),
+				TimeUnit.SECONDS.toMillis(idleTimeout), () -> connectStore(storeName, Map.of()));
+	}
+
+	/**
+	 * Return a mail store opened by {@link #openStore(String)}.
+	 * 
+	 * All folders of the store must be closed. The connection is kept open
+	 * in the {@link MailStorePool} for the next caller.
+	 * 
+	 * @param storeName
+	 * @param store
+	 */
+	public static void releaseStore(String storeName, Store store) {
+		MailStorePool.get().release(storeName, store);
+	}
+
+	/**
+	 * Connect a new store, which is not taken from the pool.
+	 * 
+	 * @param storeName
+	 * @param sessionProperties additional session properties for this connection only
+	 * @return
+	 * @throws Exception
+	 */
+	static Store connectStore(String storeName, Map<String, Object> sessionProperties) throws Exception {
 		Store store = null;
 
-		String protocol = getVar(storeName, PROTOCOL_VAR);
-		String host = getVar(storeName, HOST_VAR);
-		String portString = getVar(storeName, PORT_VAR);
-		
+		MailStoreConfig config = MailStoreConfig.get(storeName);
+
 		UserPasswordProvider userPasswordProvider = userPasswordProviderRegister.get(storeName);
 		// adapt exist project already use this connector, default is basic auth
 		if (null == userPasswordProvider) {
@@ -626,31 +1760,33 @@ public class MailStoreService {
 		String user = userPasswordProvider.getUser(storeName);
 		String password = userPasswordProvider.getPassword(storeName);
 
-		String debugString = getVar(storeName, DEBUG_VAR);
-
 		LOG.debug(
 				"Creating mail store connection, protocol: {0} host: {1} port: {2} UserPasswordProvider: {3} user: {4} password: {5} debug: {6}",
-				protocol, host, portString, userPasswordProvider.getClass().getSimpleName(), user,
-				StringUtils.isNotBlank(password) ? "is set" : "is not set", debugString);
+				config.getProtocol(), config.getHost(), config.getPort(), userPasswordProvider.getClass().getSimpleName(), user,
+				StringUtils.isNotBlank(password) ? "is set" : "is not set", config.isDebug());
 
-		ByteArrayOutputStream stream = new ByteArrayOutputStream();
-		PrintStream debugStream = new PrintStream(stream);
-
-		boolean debug = true;
+		boolean debug = config.isDebug();
 
 		try {
-			Session session = MailSessionProvider.getSession(storeName);
-
-			debug = Boolean.parseBoolean(debugString);
-			int port = Integer.parseInt(portString);
+			Session session = config.getSession();
 
-			if(debug) {
-				session.setDebug(debug);
-				session.setDebugOut(debugStream);
+			if(debug || !sessionProperties.isEmpty()) {
+				// debug output and additional properties are per connection, so the shared session must not be changed
+				session = config.newSession(sessionProperties);
+				if(debug) {
+					// the protocol trace is logged line by line for the whole lifetime of the connection
+					int maxLineLength = NumberUtils.toInt(config.variable(DEBUG_MAX_LINE_LENGTH_VAR), DebugLogStream.DEFAULT_MAX_LINE_LENGTH);
+					session.setDebug(debug);
+					session.setDebugOut(new PrintStream(new DebugLogStream(storeName, maxLineLength), true, StandardCharsets.UTF_8));
+				}
 			}
-			store = session.getStore(protocol);
-			store.connect(host, port, user, password);
+			store = session.getStore(config.getProtocol());
+			store.connect(config.getHost(), config.getPort(), user, password);
 		} catch(Exception e) {
+			if(e instanceof AuthenticationFailedException) {
+				// e.g. a cached access token which was revoked, the next connect gets new credentials
+				userPasswordProvider.authenticationFailed(storeName);
+			}
 			try {
 				if (store != null) {
 					store.close();
@@ -660,34 +1796,32 @@ public class MailStoreService {
 			}
 			throw (e);
 		}
-		finally {
-			if(debug) {
-				LOG.debug("Debug output:\n {0}", stream.toString());
-			}
-		}
 		return store;
 	}
 
-	private static Folder openFolder(Store store, String folderName, int mode) throws MessagingException {
+	static Folder openFolder(Store store, String folderName, int mode) throws MessagingException {
 		LOG.debug("Opening folder {0}", folderName);
 		Folder folder = store.getFolder(folderName);
+		if(folder == null) {
+			throw new MessagingException("Could not open folder " + folderName);
+		}
 
-		if(folder != null && folder.exists()) {
-			LOG.debug("Message count: {0} new: {1} unread: {2} deleted: {3}",
-					folder.getMessageCount(), folder.getNewMessageCount(),
-					folder.getUnreadMessageCount(), folder.getDeletedMessageCount());
-
+		try {
+			// opening fails for a folder which does not exist, so existence is not checked separately
 			folder.open(mode);
-		}
-		else {
-			throw new MessagingException("Could not open folder " + folderName);
+		} catch (FolderNotFoundException e) {
+			throw new MessagingException("Could not open folder " + folderName, e);
 		}
 
+		if(LOG.isDebugEnabled()) {
+			// the counts of an open IMAP folder are known from the response to SELECT
+			LOG.debug("Folder {0} message count: {1} new: {2}", folderName, folder.getMessageCount(), folder.getNewMessageCount());
+		}
 		return folder;
 	}
-	
+
 	public static String getVar(String store, String var) {
-		return Ivy.var().get(String.format("%s.%s.%s", MAIL_STORE_VAR, store, var));
+		return Ivy.var().get(MAIL_STORE_VAR + "." + store + "." + var);
 	}
 
 	public static BpmPublicErrorBuilder buildError(String code) {
@@ -699,7 +1833,42 @@ public class MailStoreService {
 		return Pattern.compile(pattern, Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 	}
 
-	private static String toString(Message m) {
+	/**
+	 * Get the first value of a header decoded like {@link Message#getSubject()}.
+	 * 
+	 * Unlike the getters of an IMAP message, this only needs the header and not the whole envelope.
+	 * The decoded value is kept until the message is handled.
+	 * 
+	 * @param m
+	 * @param name
+	 * @return
+	 * @throws MessagingException
+	 */
+	static String decodedHeader(Message m, String name) throws MessagingException {
+		return MessageAnalysis.of(m).decodedHeader(m, name);
+	}
+
+	/**
+	 * Decode the first value of a header without caching.
+	 * 
+	 * @param m
+	 * @param name
+	 * @return
+	 * @throws MessagingException
+	 */
+	static String decodeHeader(Message m, String name) throws MessagingException {
+		String[] values = m.getHeader(name);
+		if(values == null || values.length == 0) {
+			return null;
+		}
+		try {
+			return MimeUtility.decodeText(MimeUtility.unfold(values[0]));
+		} catch (UnsupportedEncodingException e) {
+			return values[0];
+		}
+	}
+
+	static String toString(Message m) {
 		String subject = null;
 		try {
 			subject = m != null ? m.getSubject() : null;
@@ -0,0 +1,134 @@
+package com.axonivy.connector.mailstore;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+
+/**
+ * Results of analyzing a message, which are computed only once per message.
+ *
+ * The filter of an iterator, the handler and the functions of {@link MessageService} often read the
+ * same data of a message: the structure of its parts, decoded headers, addresses and texts. They are
+ * kept here, weakly keyed by the message, until the message is handled. The cached values do not
+ * reference the message, so it can be garbage collected as soon as nobody else uses it.
+ */
+class MessageAnalysis {
+	private static final Map<Message, MessageAnalysis> CACHE = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private volatile PartDescriptor structure;
+	private final Map<String, Optional<String>> headers = new ConcurrentHashMap<>();
+	private final Map<String, String[]> addresses = new ConcurrentHashMap<>();
+	private final Map<String, String> texts = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the analysis of a message.
+	 *
+	 * @param message
+	 * @return
+	 */
+	static MessageAnalysis of(Message message) {
+		return CACHE.computeIfAbsent(message, m -> new MessageAnalysis());
+	}
+
+	/**
+	 * Drop the analysis of a message, e.g. when it was handled.
+	 *
+	 * @param message
+	 */
+	static void drop(Message message) {
+		if(message != null) {
+			CACHE.remove(message);
+		}
+	}
+
+	/**
+	 * @param message the analyzed message
+	 * @return the structure of the parts
+	 */
+	PartDescriptor structure(Message message) {
+		PartDescriptor current = structure;
+		if(current == null) {
+			current = PartDescriptor.of(message);
+			structure = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Use a structure which is already known, e.g. from the {@link com.axonivy.connector.mailstore.cache.MessageCache}.
+	 *
+	 * @param structure
+	 */
+	void structure(PartDescriptor structure) {
+		this.structure = structure;
+	}
+
+	/**
+	 * @param message the analyzed message
+	 * @param name
+	 * @return the first value of the header decoded like {@link Message#getSubject()}
+	 * @throws MessagingException
+	 */
+	String decodedHeader(Message message, String name) throws MessagingException {
+		String key = name.toLowerCase(Locale.ROOT);
+		Optional<String> value = headers.get(key);
+		if(value == null) {
+			value = Optional.ofNullable(MailStoreService.decodeHeader(message, name));
+			headers.put(key, value);
+		}
+		return value.orElse(null);
+	}
+
+	/**
+	 * @param message the analyzed message
+	 * @param type e.g. <code>From</code> or a {@link javax.mail.Message.RecipientType}
+	 * @param reader reads the addresses of the type
+	 * @return the addresses as strings
+	 * @throws MessagingException
+	 */
+	String[] addresses(Object type, AddressReader reader) throws MessagingException {
+		String key = type.toString();
+		String[] value = addresses.get(key);
+		if(value == null) {
+			Address[] read = reader.read();
+			value = new String[read != null ? read.length : 0];
+			for (int i = 0; i < value.length; i++) {
+				value[i] = read[i].toString();
+			}
+			addresses.put(key, value);
+		}
+		return value;
+	}
+
+	/**
+	 * @param key identifies the extracted text
+	 * @param extractor extracts the text, if it is not known yet
+	 * @return
+	 */
+	String text(String key, Supplier<String> extractor) {
+		String value = texts.get(key);
+		if(value == null) {
+			value = extractor.get();
+			if(value != null) {
+				texts.put(key, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Reads addresses of a message.
+	 */
+	@FunctionalInterface
+	interface AddressReader {
+		Address[] read() throws MessagingException;
+	}
+}
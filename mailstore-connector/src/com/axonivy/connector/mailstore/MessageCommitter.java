@@ -0,0 +1,237 @@
+package com.axonivy.connector.mailstore;
+
+import static com.axonivy.connector.mailstore.MailStoreService.LOG;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.mail.Flags;
+import javax.mail.Flags.Flag;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+
+import com.axonivy.connector.mailstore.enums.MailMovingMethod;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+
+/**
+ * Moves and deletes handled messages of a {@link MailStoreService.MessageIterator}.
+ *
+ * Handled messages are queued and committed in batches: all messages for the same
+ * destination folder are copied with a single command and all messages are flagged
+ * as deleted with a single command. The message sets of these commands are sent as
+ * compact ranges.
+ *
+ * With {@link MailMovingMethod#MOVE}, deleted messages are moved with the IMAP MOVE
+ * command. If the server does not support it, they are copied, flagged as deleted and
+ * expunged with UID EXPUNGE (if supported), so other deleted messages are not touched.
+ *
+ * A message is only deleted, if it was copied to its destination folder. If copying fails,
+ * the other messages of the batch are still committed and the error is thrown afterwards.
+ *
+ * With {@link MessageLeases}, the leases of the messages are released before they are copied or
+ * moved, so the lease keywords do not end up in the destination folder. Messages which are not
+ * deleted are marked as handled instead.
+ */
+class MessageCommitter {
+	private static final String MOVE_CAPABILITY = "MOVE";
+	private static final String UIDPLUS_CAPABILITY = "UIDPLUS";
+	private final Folder srcFolder;
+	private final MailMovingMethod mailMovingMethod;
+	private final boolean delete;
+	private final int batchSize;
+	private final boolean expungeDeleted;
+	private final CommitListener listener;
+	private final MessageLeases leases;
+	private final List<Message> queued = new ArrayList<>();
+	private final Map<Folder, List<Message>> queuedMoves = new LinkedHashMap<>();
+	private final List<Message> flagged = new ArrayList<>();
+	private boolean failed;
+
+	/**
+	 * @param srcFolder folder of the messages
+	 * @param mailMovingMethod how messages are moved to destination folders
+	 * @param delete delete messages in the source folder?
+	 * @param batchSize number of messages committed together, <code>1</code> commits every message immediately
+	 * @param expungeDeleted expunge deleted messages immediately with UID EXPUNGE if the server supports it
+	 * @param listener is informed about committed messages
+	 */
+	MessageCommitter(Folder srcFolder, MailMovingMethod mailMovingMethod, boolean delete, int batchSize,
+			boolean expungeDeleted, CommitListener listener) {
+		this(srcFolder, mailMovingMethod, delete, batchSize, expungeDeleted, listener, null);
+	}
+
+	/**
+	 * @param srcFolder folder of the messages
+	 * @param mailMovingMethod how messages are moved to destination folders
+	 * @param delete delete messages in the source folder?
+	 * @param batchSize number of messages committed together, <code>1</code> commits every message immediately
+	 * @param expungeDeleted expunge deleted messages immediately with UID EXPUNGE if the server supports it
+	 * @param listener is informed about committed messages
+	 * @param leases leases of the messages or <code>null</code>
+	 */
+	MessageCommitter(Folder srcFolder, MailMovingMethod mailMovingMethod, boolean delete, int batchSize,
+			boolean expungeDeleted, CommitListener listener, MessageLeases leases) {
+		this.srcFolder = srcFolder;
+		this.mailMovingMethod = mailMovingMethod;
+		this.delete = delete;
+		this.batchSize = Math.max(1, batchSize);
+		this.expungeDeleted = expungeDeleted;
+		this.listener = listener;
+		this.leases = leases;
+	}
+
+	/**
+	 * Queue a handled message and commit the queue if the batch is full.
+	 *
+	 * @param message
+	 * @param dstFolder destination folder or <code>null</code> if the message is not moved
+	 * @throws MessagingException
+	 */
+	void handled(Message message, Folder dstFolder) throws MessagingException {
+		queued.add(message);
+		if(dstFolder != null) {
+			queuedMoves.computeIfAbsent(dstFolder, f -> new ArrayList<>()).add(message);
+		}
+		if(queued.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Commit all queued messages.
+	 *
+	 * @throws MessagingException
+	 */
+	void flush() throws MessagingException {
+		if(queued.isEmpty()) {
+			return;
+		}
+		Message[] messages = queued.toArray(Message[]::new);
+		Map<Folder, List<Message>> moves = new LinkedHashMap<>(queuedMoves);
+		queued.clear();
+		queuedMoves.clear();
+
+		if (leases != null) {
+			leases.release(messages);
+		}
+
+		Set<Message> removed = new HashSet<>();
+		Set<Message> notCopied = new HashSet<>();
+		MessagingException exception = null;
+		for (Map.Entry<Folder, List<Message>> move : moves.entrySet()) {
+			Folder dstFolder = move.getKey();
+			Message[] moved = move.getValue().toArray(Message[]::new);
+			try {
+				if (mailMovingMethod == MailMovingMethod.MOVE && delete) {
+					move(moved, dstFolder);
+					removed.addAll(move.getValue());
+				} else if (mailMovingMethod == MailMovingMethod.APPEND) {
+					LOG.debug("Appending {0} to {1} folder", describe(moved), dstFolder.getName());
+					dstFolder.appendMessages(moved);
+				} else {
+					LOG.debug("Copying {0} to {1} folder", describe(moved), dstFolder.getName());
+					srcFolder.copyMessages(moved, dstFolder);
+				}
+			} catch (MessagingException e) {
+				LOG.error("Could not move {0} to {1} folder, they stay in the source folder", e, describe(moved), dstFolder.getName());
+				notCopied.addAll(move.getValue());
+				failed = true;
+				if (exception == null) {
+					exception = e;
+				} else {
+					exception.addSuppressed(e);
+				}
+			}
+		}
+		if (delete) {
+			Message[] deleted = Stream.of(messages).filter(m -> !removed.contains(m) && !notCopied.contains(m)).toArray(Message[]::new);
+			if (deleted.length > 0) {
+				LOG.debug("Deleting {0}", describe(deleted));
+				srcFolder.setFlags(deleted, new Flags(Flag.DELETED), true);
+				if (expungeDeleted) {
+					expunge(deleted);
+				} else {
+					flagged.addAll(Arrays.asList(deleted));
+				}
+			}
+		}
+		if (!delete && leases != null) {
+			leases.markHandled(Stream.of(messages).filter(m -> !notCopied.contains(m)).toArray(Message[]::new));
+		}
+		listener.committed(Stream.of(messages).filter(m -> !notCopied.contains(m)).toArray(Message[]::new));
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Expunge the messages, which were flagged as deleted by this committer, before the folder is closed.
+	 *
+	 * With UIDPLUS only these messages are expunged with UID EXPUNGE. Messages flagged as deleted by
+	 * other clients are not touched.
+	 *
+	 * @return must the folder be expunged when it is closed? Only, if the server cannot expunge single
+	 * messages, messages were flagged and no commit failed.
+	 * @throws MessagingException
+	 */
+	boolean expungeFlagged() throws MessagingException {
+		if (flagged.isEmpty()) {
+			return false;
+		}
+		Message[] deleted = flagged.stream().filter(m -> !m.isExpunged()).toArray(Message[]::new);
+		flagged.clear();
+		if (deleted.length > 0 && hasCapability(UIDPLUS_CAPABILITY)) {
+			LOG.debug("Expunging {0}", describe(deleted));
+			((IMAPFolder) srcFolder).expunge(deleted);
+			return false;
+		}
+		return deleted.length > 0 && !failed;
+	}
+
+	private void move(Message[] moved, Folder dstFolder) throws MessagingException {
+		if (hasCapability(MOVE_CAPABILITY)) {
+			LOG.debug("Moving {0} to {1} folder", describe(moved), dstFolder.getName());
+			((IMAPFolder) srcFolder).moveMessages(moved, dstFolder);
+		} else {
+			LOG.debug("Copying {0} to {1} folder, server does not support MOVE", describe(moved), dstFolder.getName());
+			srcFolder.copyMessages(moved, dstFolder);
+			srcFolder.setFlags(moved, new Flags(Flag.DELETED), true);
+			expunge(moved);
+		}
+	}
+
+	private void expunge(Message[] deleted) throws MessagingException {
+		// without UIDPLUS deleted messages are expunged when the folder is closed
+		if (hasCapability(UIDPLUS_CAPABILITY)) {
+			((IMAPFolder) srcFolder).expunge(deleted);
+		} else {
+			flagged.addAll(Arrays.asList(deleted));
+		}
+	}
+
+	private boolean hasCapability(String capability) throws MessagingException {
+		return srcFolder instanceof IMAPFolder
+				&& srcFolder.getStore() instanceof IMAPStore
+				&& ((IMAPStore) srcFolder.getStore()).hasCapability(capability);
+	}
+
+	private static String describe(Message[] messages) {
+		return messages.length == 1 ? MailStoreService.toString(messages[0]) : messages.length + " messages";
+	}
+
+	/**
+	 * Informed about messages which were moved and deleted successfully.
+	 */
+	@FunctionalInterface
+	interface CommitListener {
+		void committed(Message[] messages) throws MessagingException;
+	}
+}
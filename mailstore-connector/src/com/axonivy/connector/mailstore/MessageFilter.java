@@ -0,0 +1,253 @@
+package com.axonivy.connector.mailstore;
+
+import java.util.function.Predicate;
+
+import javax.mail.FetchProfile;
+import javax.mail.Message;
+import javax.mail.search.AndTerm;
+import javax.mail.search.NotTerm;
+import javax.mail.search.OrTerm;
+import javax.mail.search.SearchTerm;
+
+/**
+ * A {@link Predicate} on messages, which knows a {@link SearchTerm} to pre-select
+ * matching messages on the server.
+ *
+ * The search term selects a superset of the messages accepted by the predicate
+ * (e.g. a substring which must be contained for a regular expression to match),
+ * so the predicate is still evaluated for all messages found by the server.
+ * Filters stay searchable when they are combined with {@link #and(Predicate)},
+ * {@link #or(Predicate)} and {@link #negate()} as far as the combination allows.
+ *
+ * The filter also knows the items of a message it reads, so they can be fetched in bulk.
+ */
+public class MessageFilter implements Predicate<Message>, FetchAware {
+	private final Predicate<Message> predicate;
+	private final SearchTerm searchTerm;
+	private final boolean exact;
+	private final FetchProfile fetchProfile;
+
+	/**
+	 * @param predicate the predicate which decides about a message
+	 * @param searchTerm server side pre-selection, <code>null</code> if not possible
+	 * @param exact the search term selects exactly the messages accepted by the predicate
+	 * @param fetchProfile items read by the predicate
+	 */
+	MessageFilter(Predicate<Message> predicate, SearchTerm searchTerm, boolean exact, FetchProfile fetchProfile) {
+		this.predicate = predicate;
+		this.searchTerm = searchTerm;
+		this.exact = searchTerm != null && exact;
+		this.fetchProfile = fetchProfile;
+	}
+
+	/**
+	 * Create a filter which is exactly described by a {@link SearchTerm}.
+	 *
+	 * @param searchTerm
+	 * @param fetchProfile items read by the search term
+	 * @return
+	 */
+	static MessageFilter of(SearchTerm searchTerm, FetchProfile fetchProfile) {
+		return new MessageFilter(searchTerm::match, searchTerm, true, fetchProfile);
+	}
+
+	/**
+	 * Get the search term of a predicate.
+	 *
+	 * @param predicate
+	 * @return the search term or <code>null</code> if the predicate cannot be searched on the server
+	 */
+	public static SearchTerm searchTermOf(Predicate<? super Message> predicate) {
+		return predicate instanceof MessageFilter ? ((MessageFilter) predicate).searchTerm : null;
+	}
+
+	/**
+	 * @return search term to pre-select messages on the server or <code>null</code>
+	 */
+	public SearchTerm getSearchTerm() {
+		return searchTerm;
+	}
+
+	@Override
+	public FetchProfile getFetchProfile() {
+		return fetchProfile;
+	}
+
+	@Override
+	public boolean test(Message message) {
+		return predicate.test(message);
+	}
+
+	@Override
+	public MessageFilter and(Predicate<? super Message> other) {
+		SearchTerm otherTerm = searchTermOf(other);
+		SearchTerm term;
+		if(searchTerm != null && otherTerm != null) {
+			term = new AndTerm(searchTerm, otherTerm);
+		}
+		else {
+			// a pre-selection of one side is still a pre-selection of the conjunction
+			term = searchTerm != null ? searchTerm : otherTerm;
+		}
+		return new MessageFilter(Predicate.super.and(other), term, exact && isExact(other), combinedProfile(other));
+	}
+
+	@Override
+	public MessageFilter or(Predicate<? super Message> other) {
+		SearchTerm otherTerm = searchTermOf(other);
+		SearchTerm term = searchTerm != null && otherTerm != null ? new OrTerm(searchTerm, otherTerm) : null;
+		return new MessageFilter(Predicate.super.or(other), term, exact && isExact(other), combinedProfile(other));
+	}
+
+	@Override
+	public MessageFilter negate() {
+		// the complement of a pre-selection is not a pre-selection of the complement
+		SearchTerm term = exact ? new NotTerm(searchTerm) : null;
+		return new MessageFilter(Predicate.super.negate(), term, exact, fetchProfile);
+	}
+
+	private FetchProfile combinedProfile(Predicate<? super Message> other) {
+		return FetchProfiles.merge(fetchProfile, FetchProfiles.requiredBy(other));
+	}
+
+	private static boolean isExact(Predicate<? super Message> predicate) {
+		return predicate instanceof MessageFilter && ((MessageFilter) predicate).exact;
+	}
+
+	/**
+	 * Find the longest literal, which must be contained in every text matching a regular expression.
+	 *
+	 * The analysis is conservative: expressions with alternatives, groups or unknown
+	 * escapes do not get a literal. The literal does not contain any of the given separators,
+	 * so it can be found by servers which search words.
+	 *
+	 * @param regex
+	 * @param separators characters which may not be part of the literal
+	 * @return the literal or <code>null</code>, if no useful literal was found
+	 */
+	static String requiredLiteral(String regex, String separators) {
+		if(regex == null || regex.indexOf('|') >= 0 || regex.indexOf('(') >= 0 || regex.indexOf(')') >= 0 || regex.contains("\\Q")) {
+			return null;
+		}
+		String longest = "";
+		StringBuilder current = new StringBuilder();
+		int length = regex.length();
+		int i = 0;
+		while(i < length) {
+			char c = regex.charAt(i);
+			Character literal = null;
+			if(c == '\\') {
+				if(i + 1 >= length) {
+					return null;
+				}
+				char escaped = regex.charAt(i + 1);
+				i += 2;
+				if(Character.isLetterOrDigit(escaped)) {
+					// character classes and boundaries are fine, other escapes (hex, unicode, properties, back references...) are not analyzed
+					if("dDwWsSbBhHvVAzZG".indexOf(escaped) < 0) {
+						return null;
+					}
+				}
+				else {
+					literal = escaped;
+				}
+			}
+			else if(c == '[') {
+				i = skipCharacterClass(regex, i);
+				if(i < 0) {
+					return null;
+				}
+			}
+			else if("*+?{}".indexOf(c) >= 0) {
+				// quantifier without atom
+				return null;
+			}
+			else {
+				i++;
+				if(".^$".indexOf(c) < 0) {
+					literal = c;
+				}
+			}
+
+			if(literal != null && separators.indexOf(literal) >= 0) {
+				literal = null;
+			}
+
+			boolean endOfRun = literal == null;
+			if(i < length && "*+?{".indexOf(regex.charAt(i)) >= 0) {
+				char quantifier = regex.charAt(i);
+				int end = skipQuantifier(regex, i);
+				if(end < 0) {
+					return null;
+				}
+				boolean required = quantifier == '+' || (quantifier == '{' && minimumRepetitions(regex.substring(i + 1, end - 1)) > 0);
+				i = end;
+				// lazy and possessive modifiers
+				if(i < length && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+					i++;
+				}
+				if(!required) {
+					literal = null;
+				}
+				endOfRun = true;
+			}
+			if(literal != null) {
+				current.append(literal.charValue());
+			}
+			if(endOfRun) {
+				longest = longer(longest, current);
+				current.setLength(0);
+			}
+		}
+		longest = longer(longest, current);
+		return longest.length() >= 3 ? longest : null;
+	}
+
+	private static String longer(String longest, CharSequence current) {
+		return current.length() > longest.length() ? current.toString() : longest;
+	}
+
+	private static int skipCharacterClass(String regex, int start) {
+		int length = regex.length();
+		int i = start + 1;
+		if(i < length && regex.charAt(i) == '^') {
+			i++;
+		}
+		// a closing bracket at the beginning is a literal
+		if(i < length && regex.charAt(i) == ']') {
+			i++;
+		}
+		int depth = 1;
+		for(; i < length; i++) {
+			char c = regex.charAt(i);
+			if(c == '\\') {
+				i++;
+			}
+			else if(c == '[') {
+				depth++;
+			}
+			else if(c == ']' && --depth == 0) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	private static int skipQuantifier(String regex, int start) {
+		if(regex.charAt(start) != '{') {
+			return start + 1;
+		}
+		int end = regex.indexOf('}', start);
+		return end < 0 ? -1 : end + 1;
+	}
+
+	private static int minimumRepetitions(String range) {
+		int comma = range.indexOf(',');
+		String minimum = (comma >= 0 ? range.substring(0, comma) : range).trim();
+		try {
+			return Integer.parseInt(minimum);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.axonivy.connector.mailstore;
+
+import javax.mail.Message;
+
+/**
+ * Handler of messages.
+ */
+@FunctionalInterface
+public interface MessageHandler {
+
+	/**
+	 * Handle a message.
+	 *
+	 * @param message
+	 * @return <code>true</code> if the message was handled successfully and should be deleted/moved
+	 * @throws Exception
+	 */
+	boolean handle(Message message) throws Exception;
+}
@@ -0,0 +1,236 @@
+package com.axonivy.connector.mailstore;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.mail.Message;
+
+import com.axonivy.connector.mailstore.MailStoreService.MessageIterator;
+import com.axonivy.connector.mailstore.cache.MessageCache;
+import com.axonivy.connector.mailstore.checkpoint.CheckpointStore;
+
+/**
+ * Options of a {@link MessageIterator}.
+ *
+ * Use {@link #create()} and the <code>with</code> functions to set the options and
+ * pass them to {@link MailStoreService#messageIterator(String, String, MessageIteratorOptions)}.
+ */
+public class MessageIteratorOptions {
+	private List<String> dstFolderNames = List.of();
+	private boolean delete;
+	private Predicate<Message> filter;
+	private Comparator<Message> comparator;
+	private CheckpointStore checkpointStore;
+	private int windowSize;
+	private int batchSize = 1;
+	private Duration leaseTime;
+	private int maxMessages;
+	private Duration timeBudget;
+	private MessageCache messageCache;
+
+	public static MessageIteratorOptions create() {
+		return new MessageIteratorOptions();
+	}
+
+	/**
+	 * @param dstFolderNames handled messages will be moved to these folders
+	 * @return
+	 */
+	public MessageIteratorOptions withDstFolderNames(String... dstFolderNames) {
+		return withDstFolderNames(Arrays.asList(dstFolderNames));
+	}
+
+	/**
+	 * @param dstFolderNames handled messages will be moved to these folders
+	 * @return
+	 */
+	public MessageIteratorOptions withDstFolderNames(List<String> dstFolderNames) {
+		this.dstFolderNames = dstFolderNames;
+		return this;
+	}
+
+	/**
+	 * @param delete delete handled messages from the source folder?
+	 * @return
+	 */
+	public MessageIteratorOptions withDelete(boolean delete) {
+		this.delete = delete;
+		return this;
+	}
+
+	/**
+	 * @param filter a filter predicate
+	 * @return
+	 */
+	public MessageIteratorOptions withFilter(Predicate<Message> filter) {
+		this.filter = filter;
+		return this;
+	}
+
+	/**
+	 * @param comparator a sort comparator
+	 * @return
+	 */
+	public MessageIteratorOptions withComparator(Comparator<Message> comparator) {
+		this.comparator = comparator;
+		return this;
+	}
+
+	/**
+	 * Iterate incrementally.
+	 *
+	 * Only messages, which arrived after the last run are iterated. The position in the
+	 * folder is saved in the checkpoint store, when the iterator is closed.
+	 * Needs a folder with UIDs (IMAP).
+	 *
+	 * @param checkpointStore where checkpoints are loaded from and saved to
+	 * @return
+	 */
+	public MessageIteratorOptions withCheckpointStore(CheckpointStore checkpointStore) {
+		this.checkpointStore = checkpointStore;
+		return this;
+	}
+
+	/**
+	 * Fetch, filter and sort messages in windows.
+	 *
+	 * Only the messages of the current window are fetched, the next window is fetched
+	 * in the background while the current one is handled. The filter and the comparator
+	 * run in the calling thread. Note, that the
+	 * {@link #withComparator(Comparator) comparator} sorts the messages of each window,
+	 * unless it is a {@link MessageSort}, which is sorted by the server.
+	 *
+	 * @param windowSize number of messages per window, <code>0</code> loads all messages at once
+	 * @return
+	 */
+	public MessageIteratorOptions withWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+		return this;
+	}
+
+	/**
+	 * Commit handled messages in batches.
+	 *
+	 * Handled messages are moved and deleted together, when the batch is full and
+	 * when the iterator is closed. Messages of an unfinished batch are not moved or deleted,
+	 * if the iterator is not closed.
+	 *
+	 * @param batchSize number of messages committed together, <code>1</code> commits every message immediately
+	 * @return
+	 */
+	public MessageIteratorOptions withBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Claim every message before it is handed out, so several engine nodes can iterate the same folder.
+	 *
+	 * A message is claimed with an IMAP keyword, which expires after the lease time. Messages claimed by
+	 * another node are skipped. The lease time must be longer than the time needed to handle a message
+	 * and commit it, otherwise another node may handle it again. Handled messages lose their keyword before
+	 * they are moved, handled messages which stay in the folder get the keyword <code>IvyHandled</code> and
+	 * are not claimed again.
+	 *
+	 * @param leaseTime how long a claim is valid, <code>null</code> to not claim messages
+	 * @return
+	 */
+	public MessageIteratorOptions withLeaseTime(Duration leaseTime) {
+		this.leaseTime = leaseTime;
+		return this;
+	}
+
+	/**
+	 * Hand out at most this number of messages, then commit and close the iterator.
+	 *
+	 * Without a {@link #withComparator(Comparator) comparator}, the messages are handed out in the order of the
+	 * folder, so the oldest messages come first. With a comparator, only the first messages in sort order are
+	 * sorted, the others are skipped. Remaining messages are handed out by the next iterator.
+	 *
+	 * @param maxMessages maximum number of messages, <code>0</code> for no limit
+	 * @return
+	 */
+	public MessageIteratorOptions withMaxMessages(int maxMessages) {
+		this.maxMessages = maxMessages;
+		return this;
+	}
+
+	/**
+	 * Stop handing out messages after some time, then commit and close the iterator.
+	 *
+	 * The time starts when the iterator is created. A message which is already handed out is still
+	 * handled and committed, so a run may take longer by the time needed to handle a message.
+	 *
+	 * @param timeBudget how long messages are handed out, <code>null</code> for no limit
+	 * @return
+	 */
+	public MessageIteratorOptions withTimeBudget(Duration timeBudget) {
+		this.timeBudget = timeBudget;
+		return this;
+	}
+
+	/**
+	 * Read the content of messages from a local cache.
+	 *
+	 * A message is read from the server the first time it is handed out. If it is not handled,
+	 * its structure is cached and used by part filters of later iterators. When it comes again,
+	 * it is downloaded into the cache and the handler gets a copy, which reads its content from
+	 * the cache. So downloads are only saved from the second retry on, messages which are handled
+	 * the first time are never written to the disk. Flags are read from and set on the message in the folder.
+	 * Handled messages are removed from the cache. Needs a folder with UIDs (IMAP).
+	 *
+	 * @param messageCache the cache, <code>null</code> to read messages from the server
+	 * @return
+	 */
+	public MessageIteratorOptions withMessageCache(MessageCache messageCache) {
+		this.messageCache = messageCache;
+		return this;
+	}
+
+	public List<String> getDstFolderNames() {
+		return dstFolderNames;
+	}
+
+	public boolean isDelete() {
+		return delete;
+	}
+
+	public Predicate<Message> getFilter() {
+		return filter;
+	}
+
+	public Comparator<Message> getComparator() {
+		return comparator;
+	}
+
+	public CheckpointStore getCheckpointStore() {
+		return checkpointStore;
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public Duration getLeaseTime() {
+		return leaseTime;
+	}
+
+	public int getMaxMessages() {
+		return maxMessages;
+	}
+
+	public Duration getTimeBudget() {
+		return timeBudget;
+	}
+
+	public MessageCache getMessageCache() {
+		return messageCache;
+	}
+}
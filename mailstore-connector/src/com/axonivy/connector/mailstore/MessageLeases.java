@@ -0,0 +1,279 @@
+package com.axonivy.connector.mailstore;
+
+import static com.axonivy.connector.mailstore.MailStoreService.LOG;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Flags;
+import javax.mail.Flags.Flag;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.sun.mail.iap.Response;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.FLAGS;
+import com.sun.mail.imap.protocol.FetchResponse;
+import com.sun.mail.imap.protocol.UID;
+
+/**
+ * Claims messages with IMAP keywords, so that several engine nodes can work on the same folder.
+ *
+ * A claim sets the keyword <code>IvyLease.&lt;owner&gt;.&lt;unit&gt;.&lt;slot&gt;</code> on the message and
+ * reads the flags of the message again. If another unexpired lease or the deleted flag is found,
+ * the own keyword is removed again and the message is left to the other owner. Since every owner
+ * backs off when it sees a competing lease, a message is never claimed by two owners. Expired
+ * leases of crashed nodes are removed when they are found.
+ *
+ * Servers keep every keyword ever used in a folder and limit their number, so the set of keywords is
+ * bounded: the owner is the same for all iterators of a JVM, iterators of the same JVM are told apart
+ * in memory, and the expiry is stored as one of {@value #SLOTS} slots of a unit of a quarter of the
+ * lease time. A slot is read as the expiry closest to the current time, so an expired lease is
+ * recognized for two lease times after it expired. Handled messages lose their lease before they are
+ * copied or moved, so destination folders get no lease keywords. Handled messages which stay in the
+ * folder are marked with the keyword <code>IvyHandled</code> and are not claimed again.
+ */
+class MessageLeases {
+	private static final String PREFIX = "IvyLease.";
+	private static final String HANDLED = "IvyHandled";
+	private static final int SLOTS = 16;
+	private static final String OWNER = ownerId();
+	/** messages claimed by iterators of this JVM, which all use the same owner */
+	private static final Set<String> ACTIVE = ConcurrentHashMap.newKeySet();
+	private final IMAPFolder folder;
+	private final String folderKey;
+	private final long leaseMillis;
+	private final long unitMinutes;
+	private final Map<Message, String> claims = new ConcurrentHashMap<>();
+
+	private MessageLeases(IMAPFolder folder, String folderKey, long leaseMillis) {
+		this.folder = folder;
+		this.folderKey = folderKey;
+		this.leaseMillis = leaseMillis;
+		this.unitMinutes = Math.max(1, (TimeUnit.MILLISECONDS.toMinutes(leaseMillis) + 3) / 4);
+	}
+
+	/**
+	 * @param folder folder of the messages, must support keywords
+	 * @param leaseTime how long a claim is valid
+	 * @return
+	 * @throws MessagingException
+	 */
+	static MessageLeases create(Folder folder, Duration leaseTime) throws MessagingException {
+		Flags permanentFlags = folder.getPermanentFlags();
+		if(!(folder instanceof IMAPFolder) || permanentFlags == null || !permanentFlags.contains(Flag.USER)) {
+			throw new MessagingException("Folder " + folder.getFullName() + " does not support keywords, which are needed for leases.");
+		}
+		IMAPFolder imapFolder = (IMAPFolder) folder;
+		String folderKey = folder.getURLName() + "/" + imapFolder.getUIDValidity() + "/";
+		return new MessageLeases(imapFolder, folderKey, leaseTime.toMillis());
+	}
+
+	/**
+	 * Try to claim a message.
+	 *
+	 * @param message
+	 * @return <code>true</code> if this owner may handle the message
+	 * @throws MessagingException
+	 */
+	boolean claim(Message message) throws MessagingException {
+		if(message.isExpunged()) {
+			return false;
+		}
+		// the UID does not change, when other messages are expunged while the lease is taken
+		long uid = folder.getUID(message);
+		String key = folderKey + uid;
+		if(!ACTIVE.add(key)) {
+			LOG.debug("{0} is claimed by another iterator, skipping it.", MailStoreService.toString(message));
+			return false;
+		}
+		boolean taken = true;
+		try {
+			long now = System.currentTimeMillis();
+			long expiry = Math.ceilDiv(TimeUnit.MILLISECONDS.toMinutes(now + leaseMillis) + 1, unitMinutes);
+			String keyword = PREFIX + OWNER + "." + unitMinutes + "." + Math.floorMod(expiry, SLOTS);
+
+			Flags current = storeFlags(String.valueOf(uid), uid, new Flags(keyword), true);
+			if(current == null) {
+				// expunged by another client
+				return false;
+			}
+
+			taken = current.contains(Flag.DELETED) || current.contains(HANDLED);
+			Flags remove = new Flags();
+			for (String userFlag : current.getUserFlags()) {
+				if(userFlag.startsWith(PREFIX) && !userFlag.equals(keyword)) {
+					if(isExpired(userFlag, now)) {
+						LOG.debug("Removing expired lease {0} of {1}", userFlag, MailStoreService.toString(message));
+						remove.add(userFlag);
+					}
+					else {
+						taken = true;
+					}
+				}
+			}
+			if(taken) {
+				LOG.debug("{0} is claimed by another node, skipping it.", MailStoreService.toString(message));
+				remove.add(keyword);
+			}
+			else {
+				claims.put(message, keyword);
+			}
+			if(remove.getUserFlags().length > 0) {
+				storeFlags(String.valueOf(uid), uid, remove, false);
+			}
+			return !taken;
+		} finally {
+			if(taken) {
+				ACTIVE.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Give up the claim of a message, so that other nodes can handle it immediately.
+	 *
+	 * @param message
+	 * @throws MessagingException
+	 */
+	void release(Message message) throws MessagingException {
+		release(new Message[] { message });
+	}
+
+	/**
+	 * Remove the claims of messages, e.g. before handled messages are copied or moved, so the
+	 * keyword does not end up in the destination folder. Messages with the same keyword are
+	 * released with a single command.
+	 *
+	 * @param messages
+	 * @throws MessagingException
+	 */
+	void release(Message[] messages) throws MessagingException {
+		Map<String, List<Long>> uidsByKeyword = new LinkedHashMap<>();
+		for (Message message : messages) {
+			String keyword = claims.remove(message);
+			if(keyword != null) {
+				long uid = folder.getUID(message);
+				ACTIVE.remove(folderKey + uid);
+				if(!message.isExpunged()) {
+					uidsByKeyword.computeIfAbsent(keyword, k -> new ArrayList<>()).add(uid);
+				}
+			}
+		}
+		for (Map.Entry<String, List<Long>> entry : uidsByKeyword.entrySet()) {
+			storeFlags(uidSet(entry.getValue()), -1, new Flags(entry.getKey()), false);
+		}
+	}
+
+	/**
+	 * Mark handled messages which stay in the folder, so they are not claimed again after their lease was released.
+	 *
+	 * @param messages
+	 * @throws MessagingException
+	 */
+	void markHandled(Message[] messages) throws MessagingException {
+		List<Long> uids = new ArrayList<>();
+		for (Message message : messages) {
+			if(!message.isExpunged()) {
+				uids.add(folder.getUID(message));
+			}
+		}
+		if(!uids.isEmpty()) {
+			storeFlags(uidSet(uids), -1, new Flags(HANDLED), true);
+		}
+	}
+
+	/**
+	 * Forget the remaining claims, so other iterators of this JVM can claim the messages once the leases expired.
+	 */
+	void close() {
+		claims.keySet().forEach(message -> {
+			try {
+				ACTIVE.remove(folderKey + folder.getUID(message));
+			} catch (MessagingException e) {
+				LOG.debug("Could not forget the claim of {0}", e, MailStoreService.toString(message));
+			}
+		});
+		claims.clear();
+	}
+
+	private static String uidSet(List<Long> uids) {
+		return String.join(",", uids.stream().map(String::valueOf).toList());
+	}
+
+	/**
+	 * Set or remove keywords of messages with <code>UID STORE</code>.
+	 *
+	 * @param uids UID set of the messages
+	 * @param uid UID of the message whose flags are returned
+	 * @param keywords
+	 * @param set
+	 * @return the flags of the message after the change or <code>null</code> if the message does not exist anymore
+	 * @throws MessagingException
+	 */
+	private Flags storeFlags(String uids, long uid, Flags keywords, boolean set) throws MessagingException {
+		String command = "UID STORE " + uids + (set ? " +FLAGS (" : " -FLAGS (") + String.join(" ", keywords.getUserFlags()) + ")";
+		return (Flags) folder.doCommand(protocol -> {
+			Response[] responses = protocol.command(command, null);
+			Flags flags = null;
+			for (Response response : responses) {
+				if(response instanceof FetchResponse) {
+					FetchResponse fetch = (FetchResponse) response;
+					UID fetchUid = fetch.getItem(UID.class);
+					FLAGS fetchFlags = fetch.getItem(FLAGS.class);
+					if(fetchFlags != null && (fetchUid == null || fetchUid.uid == uid)) {
+						flags = fetchFlags;
+					}
+				}
+			}
+			// updates the flags of the cached message
+			protocol.notifyResponseHandlers(responses);
+			protocol.handleResult(responses[responses.length - 1]);
+			return flags;
+		});
+	}
+
+	/**
+	 * Is the lease of a keyword <code>IvyLease.&lt;owner&gt;.&lt;unit&gt;.&lt;slot&gt;</code> expired?
+	 *
+	 * The slot is read as the expiry closest to the current time.
+	 */
+	private static boolean isExpired(String keyword, long now) {
+		String[] parts = keyword.split("\\.");
+		if(parts.length < 4) {
+			// e.g. a keyword of an older version
+			return true;
+		}
+		long unit = NumberUtils.toLong(parts[parts.length - 2], 0);
+		long slot = NumberUtils.toLong(parts[parts.length - 1], -1);
+		if(unit <= 0 || slot < 0) {
+			return true;
+		}
+		long current = Math.floorDiv(TimeUnit.MILLISECONDS.toMinutes(now), unit);
+		long ahead = Math.floorMod(slot - current, SLOTS);
+		return ahead == 0 || ahead > SLOTS / 2;
+	}
+
+	private static String ownerId() {
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			host = "unknown";
+		}
+		// keywords are IMAP atoms, the random part distinguishes JVMs on the same host
+		return host.replaceAll("[^A-Za-z0-9]", "-") + "-" + Long.toString(ThreadLocalRandom.current().nextLong(Long.MAX_VALUE), 36);
+	}
+}
@@ -2,17 +2,34 @@ package com.axonivy.connector.mailstore;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.mail.BodyPart;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Part;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimePart;
+import javax.mail.internet.MimeUtility;
 
 import ch.ivyteam.ivy.bpm.error.BpmError;
 import ch.ivyteam.ivy.bpm.error.BpmPublicErrorBuilder;
@@ -20,6 +37,12 @@ import ch.ivyteam.ivy.bpm.error.BpmPublicErrorBuilder;
 public class MessageService {
 	private static final MessageService INSTANCE = new MessageService();
 	private static final String ERROR_BASE = "mailstore:connector:message";
+	private static final String BASE64 = "base64";
+	/**
+	 * Number of bytes fetched with one request, when the content of an IMAP part is written.
+	 */
+	public static final int CONTENT_CHUNK_SIZE = 256 * 1024;
+	private static final int TEXT_BUFFER_SIZE = 8192;
 
 	public static MessageService get() {
 		return INSTANCE;
@@ -37,20 +60,52 @@ public class MessageService {
 	 * @return
 	 */
 	public static List<Part> getAllParts(Message message, boolean includeSubMessages, Predicate<Part> filter) {
-		List<Part> parts = new ArrayList<>();
-		try {
-			collectParts(parts, message, 1, includeSubMessages, filter);
+		Stream<Part> parts = streamParts(message, includeSubMessages);
+		if(filter != null) {
+			parts = parts.filter(filter);
 		}
-		catch(Exception e) {
-			throw buildError("iterator").withCause(e).build();
+		return parts.collect(Collectors.toList());
+	}
+
+	/**
+	 * Does any part of the message match the predicate?
+	 * 
+	 * Predicates built from the part predicates of this class are evaluated on the
+	 * {@link PartDescriptor structure} of the message, so no content is downloaded.
+	 * Other predicates are evaluated on the parts until the first match.
+	 * 
+	 * @param message
+	 * @param includeSubMessages also go into messages contained in the message?
+	 * @param predicate
+	 * @return
+	 */
+	public static boolean anyPartMatches(Message message, boolean includeSubMessages, Predicate<Part> predicate) {
+		Predicate<PartDescriptor> descriptorPredicate = PartPredicate.descriptorPredicateOf(predicate);
+		if(descriptorPredicate != null) {
+			return MessageAnalysis.of(message).structure(message).stream(includeSubMessages).anyMatch(descriptorPredicate);
 		}
+		return streamParts(message, includeSubMessages).anyMatch(predicate);
+	}
 
-		return parts;
+	/**
+	 * Get a lazy stream of all parts in depth-first order.
+	 * 
+	 * The content of a part is only read, when the stream advances into its children,
+	 * so e.g. {@link Stream#anyMatch(Predicate)} stops reading the message at the first match.
+	 * 
+	 * @param message
+	 * @param includeSubMessages also go into messages contained in the message?
+	 * @return
+	 */
+	public static Stream<Part> streamParts(Message message, boolean includeSubMessages) {
+		return StreamSupport.stream(new PartSpliterator(message, includeSubMessages), false);
 	}
 
 	/**
 	 * Get all text parts concatenated into a single {@link String}.
 	 * 
+	 * The result is kept until the message is handled.
+	 * 
 	 * @param message
 	 * @param subType
 	 * @param delimiter
@@ -58,17 +113,72 @@ public class MessageService {
 	 * @return
 	 */
 	public static String getAllTexts(Message message, String subType, String delimiter, boolean includeSubMessages) {
-		return getAllParts(message, includeSubMessages, isText(subType))
-				.stream()
-				.map(p -> {
-					try {
-						String content = (String)p.getContent();
-						return content != null ? content : "<null>";
-					} catch (IOException | MessagingException e) {
-						throw buildError("alltexts").build();
-					}
-				})
-				.collect(Collectors.joining(delimiter));
+		return getAllTexts(message, subType, delimiter, includeSubMessages, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Get the beginning of all text parts concatenated into a single {@link String}.
+	 * 
+	 * Parts are only read up to the limit. The result is kept until the message is handled.
+	 * 
+	 * @param message
+	 * @param subType
+	 * @param delimiter
+	 * @param includeSubMessages
+	 * @param maxChars maximum number of characters including delimiters
+	 * @return
+	 */
+	public static String getAllTexts(Message message, String subType, String delimiter, boolean includeSubMessages, long maxChars) {
+		String key = subType + "|" + delimiter + "|" + includeSubMessages + "|" + maxChars;
+		return MessageAnalysis.of(message).text(key, () -> {
+			StringBuilder texts = new StringBuilder();
+			writeTexts(message, subType, delimiter, includeSubMessages, texts, maxChars);
+			return texts.toString();
+		});
+	}
+
+	/**
+	 * Write all text parts to an {@link Appendable}, e.g. a {@link java.io.Writer} or a {@link StringBuilder}.
+	 * 
+	 * @param message
+	 * @param subType
+	 * @param delimiter
+	 * @param includeSubMessages
+	 * @param target
+	 * @param maxChars maximum number of characters including delimiters
+	 * @return number of characters written
+	 * @see #getTextReader(Message, String, String, boolean, long)
+	 */
+	public static long writeTexts(Message message, String subType, String delimiter, boolean includeSubMessages, Appendable target, long maxChars) {
+		try (Reader reader = getTextReader(message, subType, delimiter, includeSubMessages, maxChars)) {
+			char[] buffer = new char[TEXT_BUFFER_SIZE];
+			long count = 0;
+			int read;
+			while((read = reader.read(buffer)) >= 0) {
+				target.append(CharBuffer.wrap(buffer, 0, read));
+				count += read;
+			}
+			return count;
+		} catch (IOException e) {
+			throw buildError("alltexts").withCause(e).build();
+		}
+	}
+
+	/**
+	 * Read all text parts as one stream of characters.
+	 * 
+	 * A part is opened when the reader reaches it and decoded with its charset while it is read.
+	 * When the limit is reached, the rest of the content is not read.
+	 * 
+	 * @param message
+	 * @param subType
+	 * @param delimiter written between the texts of two parts
+	 * @param includeSubMessages
+	 * @param maxChars maximum number of characters including delimiters
+	 * @return
+	 */
+	public static Reader getTextReader(Message message, String subType, String delimiter, boolean includeSubMessages, long maxChars) {
+		return new TextPartReader(streamParts(message, includeSubMessages).filter(isText(subType)).iterator(), delimiter, maxChars);
 	}
 
 	/**
@@ -112,6 +222,8 @@ public class MessageService {
 	/**
 	 * Get the binary content bytes of this part.
 	 * 
+	 * The whole content is held in memory, use {@link #writeContent(Part, OutputStream, long)} for large parts.
+	 * 
 	 * @param part
 	 * @return
 	 */
@@ -123,17 +235,185 @@ public class MessageService {
 		}
 	}
 
-	private static void collectParts(List<Part> parts, Part part, int level, boolean includeSubMessages, Predicate<Part> filter) throws MessagingException, IOException {
-		if(includeSubMessages || level == 1 || !(part instanceof Message)) {
-			if(filter == null || filter.test(part)) {
-				parts.add(part);
+	/**
+	 * Write the decoded content of a part to a stream.
+	 * 
+	 * @param part
+	 * @param stream is not closed
+	 * @return number of bytes written
+	 */
+	public static long writeContent(Part part, OutputStream stream) {
+		return writeContent(part, stream, 0);
+	}
+
+	/**
+	 * Write the decoded content of a part to a stream, starting at an offset.
+	 * 
+	 * Parts of messages in an open IMAP folder are fetched in chunks of {@link #CONTENT_CHUNK_SIZE} bytes,
+	 * so only one chunk is held in memory. With an offset, e.g. to resume an interrupted transfer, base64
+	 * encoded content is fetched from the line containing the offset. Other encodings are read from the
+	 * beginning and skipped up to the offset.
+	 * 
+	 * @param part
+	 * @param stream is not closed
+	 * @param offset number of decoded bytes to skip
+	 * @return number of bytes written
+	 */
+	public static long writeContent(Part part, OutputStream stream, long offset) {
+		try (InputStream content = contentStream(part, offset)) {
+			return content.transferTo(stream);
+		} catch (IOException | MessagingException e) {
+			throw buildError("binarycontent").withCause(e).build();
+		}
+	}
+
+	/**
+	 * Write the decoded content of a part to a channel, starting at an offset.
+	 * 
+	 * @param part
+	 * @param channel is not closed
+	 * @param offset number of decoded bytes to skip
+	 * @return number of bytes written
+	 * @see #writeContent(Part, OutputStream, long)
+	 */
+	public static long writeContent(Part part, WritableByteChannel channel, long offset) {
+		return writeContent(part, Channels.newOutputStream(channel), offset);
+	}
+
+	/**
+	 * Write the decoded content of a part to a file.
+	 * 
+	 * @param part
+	 * @param path the file
+	 * @param resume continue an existing file after its last byte, otherwise the file is replaced
+	 * @return number of bytes written
+	 * @see #writeContent(Part, OutputStream, long)
+	 */
+	public static long writeContent(Part part, Path path, boolean resume) {
+		try {
+			long offset = resume && Files.exists(path) ? Files.size(path) : 0;
+			OpenOption[] options = offset > 0
+					? new OpenOption[] { StandardOpenOption.WRITE, StandardOpenOption.APPEND }
+					: new OpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING };
+			try (OutputStream stream = Files.newOutputStream(path, options)) {
+				return writeContent(part, stream, offset);
 			}
+		} catch (IOException e) {
+			throw buildError("binarycontent").withCause(e).build();
+		}
+	}
+
+	/**
+	 * Get the decoded content of a part starting at an offset.
+	 * 
+	 * @param part
+	 * @param offset
+	 * @return
+	 * @throws MessagingException
+	 * @throws IOException
+	 */
+	private static InputStream contentStream(Part part, long offset) throws MessagingException, IOException {
+		ChunkedBodyInputStream raw = part instanceof MimePart ? ChunkedBodyInputStream.of(part, CONTENT_CHUNK_SIZE) : null;
+		if(raw == null) {
+			InputStream stream = part.getInputStream();
+			stream.skipNBytes(offset);
+			return stream;
+		}
+		String encoding = ((MimePart) part).getEncoding();
+		if(offset > 0 && isIdentityEncoding(encoding)) {
+			raw.seek(offset);
+			return raw;
+		}
+		long skip = offset;
+		if(offset > 0 && BASE64.equalsIgnoreCase(encoding)) {
+			skip = seekBase64Line(raw, offset);
+		}
+		InputStream decoded = encoding != null ? MimeUtility.decode(raw, encoding) : raw;
+		decoded.skipNBytes(skip);
+		return decoded;
+	}
+
+	private static boolean isIdentityEncoding(String encoding) {
+		return encoding == null || "7bit".equalsIgnoreCase(encoding) || "8bit".equalsIgnoreCase(encoding) || "binary".equalsIgnoreCase(encoding);
+	}
+
+	/**
+	 * Position a base64 body at the start of the line containing a decoded offset.
+	 * 
+	 * Encoders write lines of equal length, so the line is found from the length of the first line. The
+	 * line break in front of the computed position is checked. If it is not found, the body is read from
+	 * the beginning.
+	 * 
+	 * @param raw
+	 * @param offset decoded offset
+	 * @return number of decoded bytes to skip after the positioned start
+	 * @throws IOException
+	 */
+	private static long seekBase64Line(ChunkedBodyInputStream raw, long offset) throws IOException {
+		byte[] start = raw.peek(0, 1024);
+		int lineEnd = 0;
+		while(lineEnd < start.length && start[lineEnd] != '\r' && start[lineEnd] != '\n') {
+			lineEnd++;
+		}
+		if(lineEnd == 0 || lineEnd == start.length || lineEnd % 4 != 0) {
+			return offset;
+		}
+		int separator = lineEnd + 1 < start.length && start[lineEnd] == '\r' && start[lineEnd + 1] == '\n' ? 2 : 1;
+		long decodedPerLine = lineEnd / 4 * 3;
+		long line = offset / decodedPerLine;
+		long position = line * (lineEnd + separator);
+		if(line > 0) {
+			byte[] lineBreak = raw.peek(position - separator, separator);
+			if(lineBreak.length != separator || lineBreak[separator - 1] != '\n') {
+				return offset;
+			}
+		}
+		raw.seek(position);
+		return offset - line * decodedPerLine;
+	}
+
+	/**
+	 * Walks the MIME tree depth-first, the children of a part are read when the walk continues after it.
+	 */
+	private static class PartSpliterator extends Spliterators.AbstractSpliterator<Part> {
+		private final boolean includeSubMessages;
+		private final Deque<PartAtLevel> pending = new ArrayDeque<>();
+		private PartAtLevel expand;
+
+		private PartSpliterator(Message message, boolean includeSubMessages) {
+			super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+			this.includeSubMessages = includeSubMessages;
+			pending.push(new PartAtLevel(message, 1));
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Part> action) {
+			try {
+				if(expand != null) {
+					pushChildren(expand);
+					expand = null;
+				}
+				PartAtLevel next;
+				while((next = pending.poll()) != null) {
+					if(includeSubMessages || next.level == 1 || !(next.part instanceof Message)) {
+						expand = next;
+						action.accept(next.part);
+						return true;
+					}
+				}
+				return false;
+			} catch (IOException | MessagingException e) {
+				throw buildError("iterator").withCause(e).build();
+			}
+		}
+
+		private void pushChildren(PartAtLevel parent) throws MessagingException, IOException {
+			Part part = parent.part;
 			if(isMultipart("*").test(part)) {
 				MimeMultipart multipart = (MimeMultipart) part.getContent();
-				int count = multipart.getCount();
-				for (int i = 0; i < count; i++) {
+				for (int i = multipart.getCount() - 1; i >= 0; i--) {
 					BodyPart bodyPart = multipart.getBodyPart(i);
-					collectParts(parts, bodyPart, level+1, includeSubMessages, filter);
+					pending.push(new PartAtLevel(bodyPart, parent.level + 1));
 				}
 			}
 			else if(isMessage("*").test(part)) {
@@ -143,13 +423,22 @@ public class MessageService {
 				// E.g. message/delivery-status contains information about delivery problems (RFC 1894).
 				// Only real messages will be processed recursively.
 				if(content instanceof Message) {
-					Message message = (Message)content;
-					collectParts(parts, message, level+1, includeSubMessages, filter);
+					pending.push(new PartAtLevel((Message) content, parent.level + 1));
 				}
 			}
 		}
 	}
 
+	private static class PartAtLevel {
+		private final Part part;
+		private final int level;
+
+		private PartAtLevel(Part part, int level) {
+			this.part = part;
+			this.level = level;
+		}
+	}
+
 	/**
 	 * Does part have the given MIME type?
 	 * 
@@ -159,13 +448,13 @@ public class MessageService {
 	 * @return
 	 */
 	public static Predicate<Part> isMimeType(String mimeType) {
-		return p -> {
+		return new PartPredicate(p -> {
 			try {
 				return p.isMimeType(mimeType);
 			} catch (MessagingException e) {
 				throw buildError("predicate:mimetype").build();
 			}
-		};
+		}, d -> d.isMimeType(mimeType));
 	}
 
 	/**
@@ -225,13 +514,13 @@ public class MessageService {
 	 * @return
 	 */
 	public static Predicate<Part> isDisposition(String disposition) {
-		return p -> {
+		return new PartPredicate(p -> {
 			try {
 				return disposition.equals(p.getDisposition());
 			} catch (MessagingException e) {
 				throw buildError("predicate:disposition").build();
 			}
-		}; 
+		}, d -> disposition.equals(d.getDisposition()));
 	}
 
 	/**
@@ -254,14 +543,14 @@ public class MessageService {
 
 	public static Predicate<Part> filenameMatches(String pattern) {
 		Pattern namePattern = createStandardPattern(pattern);
-		return p -> {
+		return new PartPredicate(p -> {
 			try {
 				String fileName = p.getFileName();
 				return fileName != null ? namePattern.matcher(fileName).matches() : false;
 			} catch (MessagingException e) {
 				throw buildError("predicate:filename").build();
 			}
-		}; 
+		}, d -> d.getFileName() != null ? namePattern.matcher(d.getFileName()).matches() : false);
 	}
 
 	/**
@@ -288,7 +577,7 @@ public class MessageService {
 	 * @return
 	 */
 	public static Predicate<Part> alwaysTrue() {
-		return m -> true;
+		return new PartPredicate(m -> true, d -> true);
 	}
 
 	/**
@@ -297,7 +586,7 @@ public class MessageService {
 	 * @return
 	 */
 	public static Predicate<Part> alwaysFalse() {
-		return m -> false;
+		return new PartPredicate(m -> false, d -> false);
 	}
 
 	private static Pattern createStandardPattern(String pattern) {
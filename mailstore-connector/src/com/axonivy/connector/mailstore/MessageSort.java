@@ -0,0 +1,379 @@
+package com.axonivy.connector.mailstore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.mail.Address;
+import javax.mail.FetchProfile;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.SortTerm;
+
+/**
+ * A {@link Comparator} on messages, which knows the items of a message it reads.
+ *
+ * Use the <code>by</code> functions to sort by common criteria or {@link #of(Comparator, FetchProfile)}
+ * to declare the items read by an own comparator.
+ *
+ * Sorts built only from the <code>by</code> functions (also reversed and combined with
+ * {@link #thenComparing(Comparator)}) are sent to IMAP servers supporting <code>SORT</code>. Otherwise
+ * the sort key of every message is extracted once from the pre-fetched items and the keys are sorted.
+ */
+public class MessageSort implements Comparator<Message>, FetchAware {
+	private static final Pattern SUBJECT_TRAILER = Pattern.compile("(?i)\\s*\\(fwd\\)\\s*$");
+	private static final Pattern SUBJECT_LEADER = Pattern.compile("(?i)^(?:\\[[^\\[\\]]*\\]\\s*)*(?:re|fwd?)\\s*(?:\\[[^\\[\\]]*\\])?:\\s*");
+	private static final Pattern SUBJECT_BLOB = Pattern.compile("^\\[[^\\[\\]]*\\]\\s*");
+	private static final Pattern SUBJECT_FWD = Pattern.compile("(?i)^\\[fwd:(.*)\\]$");
+	private final List<SortKey> keys;
+	private final Comparator<Message> comparator;
+	private final FetchProfile fetchProfile;
+
+	private MessageSort(List<SortKey> keys, Comparator<Message> comparator, FetchProfile fetchProfile) {
+		this.keys = keys;
+		this.comparator = comparator;
+		this.fetchProfile = fetchProfile;
+	}
+
+	private MessageSort(List<SortKey> keys) {
+		this(keys, comparatorOf(keys), FetchProfiles.merge(keys.stream().map(k -> k.fetchProfile).toArray(FetchProfile[]::new)));
+	}
+
+	/**
+	 * Declare the items read by a comparator.
+	 *
+	 * @param comparator
+	 * @param fetchProfile items read by the comparator, see {@link FetchProfiles}
+	 * @return
+	 */
+	public static MessageSort of(Comparator<Message> comparator, FetchProfile fetchProfile) {
+		return new MessageSort(null, comparator, fetchProfile);
+	}
+
+	/**
+	 * Sort by the sent date (Date header), messages without a Date header by the date they were
+	 * received by the server, like <code>SORT</code> of IMAP servers (RFC 5256).
+	 *
+	 * @return
+	 */
+	public static MessageSort bySentDate() {
+		return byKey(MessageSort::sentDate, "sentdate", SortTerm.DATE,
+				FetchProfiles.of(FetchProfile.Item.ENVELOPE, IMAPFolder.FetchProfileItem.INTERNALDATE));
+	}
+
+	/**
+	 * Sort by the date the message was received by the server (arrival).
+	 *
+	 * @return
+	 */
+	public static MessageSort byReceivedDate() {
+		return byKey(Message::getReceivedDate, "receiveddate", SortTerm.ARRIVAL, FetchProfiles.of(IMAPFolder.FetchProfileItem.INTERNALDATE));
+	}
+
+	/**
+	 * Sort by the base subject, i.e. without reply and forward markers like <code>Re:</code>,
+	 * <code>Fwd:</code> or <code>[fwd: ...]</code>, ignoring the case of ASCII letters, like
+	 * <code>SORT</code> of IMAP servers (RFC 5256).
+	 *
+	 * @return
+	 */
+	public static MessageSort bySubject() {
+		return byKey(m -> baseSubject(MailStoreService.decodedHeader(m, "Subject")), "subject", SortTerm.SUBJECT, FetchProfiles.ofHeaders("Subject"));
+	}
+
+	/**
+	 * Sort by the mailbox (the part before the <code>@</code>) of the first "from" address, ignoring
+	 * the case of ASCII letters like <code>SORT</code> of IMAP servers (RFC 5256).
+	 *
+	 * @return
+	 */
+	public static MessageSort byFrom() {
+		return byKey(MessageSort::fromMailbox, "from", SortTerm.FROM, FetchProfiles.of(FetchProfile.Item.ENVELOPE));
+	}
+
+	/**
+	 * Sort by the size of the message.
+	 *
+	 * @return
+	 */
+	public static MessageSort bySize() {
+		return byKey(Message::getSize, "size", SortTerm.SIZE, FetchProfiles.of(IMAPFolder.FetchProfileItem.SIZE));
+	}
+
+	private static MessageSort byKey(Key key, String errorCode, SortTerm sortTerm, FetchProfile fetchProfile) {
+		return new MessageSort(List.of(new SortKey(key, errorCode, sortTerm, false, fetchProfile)));
+	}
+
+	@Override
+	public FetchProfile getFetchProfile() {
+		return fetchProfile;
+	}
+
+	/**
+	 * @return the terms for a server side sort or <code>null</code> if this sort cannot be done by the server
+	 */
+	SortTerm[] getSortTerms() {
+		if(keys == null) {
+			return null;
+		}
+		List<SortTerm> terms = new ArrayList<>();
+		for (SortKey key : keys) {
+			if(key.reverse) {
+				terms.add(SortTerm.REVERSE);
+			}
+			terms.add(key.sortTerm);
+		}
+		return terms.toArray(SortTerm[]::new);
+	}
+
+	/**
+	 * Sort messages, extracting the keys of each message only once.
+	 *
+	 * @param messages
+	 * @return the sorted messages
+	 */
+	Message[] sort(Message[] messages) {
+		return sort(messages, messages.length);
+	}
+
+	/**
+	 * Get the first messages in sort order, extracting the keys of each message only once.
+	 *
+	 * @param messages
+	 * @param limit maximum number of messages returned
+	 * @return the first messages in sort order
+	 */
+	Message[] sort(Message[] messages, int limit) {
+		if(keys == null) {
+			return first(messages, comparator, limit);
+		}
+		Keyed[] keyed = new Keyed[messages.length];
+		for (int i = 0; i < messages.length; i++) {
+			Comparable<Object>[] values = newValues(keys.size());
+			for (int k = 0; k < keys.size(); k++) {
+				values[k] = keys.get(k).extract(messages[i]);
+			}
+			keyed[i] = new Keyed(messages[i], values);
+		}
+		Keyed[] sorted = first(keyed, (k1, k2) -> {
+			for (int k = 0; k < keys.size(); k++) {
+				int result = compareValues(k1.values[k], k2.values[k]);
+				if(result != 0) {
+					return keys.get(k).reverse ? -result : result;
+				}
+			}
+			return 0;
+		}, limit);
+		return Arrays.stream(sorted).map(k -> k.message).toArray(Message[]::new);
+	}
+
+	/**
+	 * Get the first elements in the order of a comparator.
+	 *
+	 * If only some of the elements are needed, they are selected with a bounded heap, which
+	 * holds the current candidates with the greatest one on top. Only the selected elements are sorted.
+	 *
+	 * @param elements
+	 * @param comparator
+	 * @param limit maximum number of elements returned
+	 * @return the sorted first elements, a new array
+	 */
+	static <T> T[] first(T[] elements, Comparator<? super T> comparator, int limit) {
+		if(limit >= elements.length) {
+			T[] sorted = elements.clone();
+			Arrays.sort(sorted, comparator);
+			return sorted;
+		}
+		T[] selected = Arrays.copyOf(elements, Math.max(0, limit));
+		if(limit <= 0) {
+			return selected;
+		}
+		PriorityQueue<T> heap = new PriorityQueue<>(limit + 1, comparator.reversed());
+		for (T element : elements) {
+			if(heap.size() < limit) {
+				heap.add(element);
+			}
+			else if(comparator.compare(element, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(element);
+			}
+		}
+		heap.toArray(selected);
+		Arrays.sort(selected, comparator);
+		return selected;
+	}
+
+	@Override
+	public int compare(Message m1, Message m2) {
+		return comparator.compare(m1, m2);
+	}
+
+	@Override
+	public MessageSort reversed() {
+		if(keys == null) {
+			return new MessageSort(null, comparator.reversed(), fetchProfile);
+		}
+		return new MessageSort(keys.stream().map(SortKey::reversed).toList());
+	}
+
+	@Override
+	public MessageSort thenComparing(Comparator<? super Message> other) {
+		if(keys != null && other instanceof MessageSort && ((MessageSort) other).keys != null) {
+			List<SortKey> combined = new ArrayList<>(keys);
+			combined.addAll(((MessageSort) other).keys);
+			return new MessageSort(combined);
+		}
+		return new MessageSort(null, comparator.thenComparing(other), FetchProfiles.merge(fetchProfile, FetchProfiles.requiredBy(other)));
+	}
+
+	private static Comparator<Message> comparatorOf(List<SortKey> keys) {
+		return (m1, m2) -> {
+			for (SortKey key : keys) {
+				int result = compareValues(key.extract(m1), key.extract(m2));
+				if(result != 0) {
+					return key.reverse ? -result : result;
+				}
+			}
+			return 0;
+		};
+	}
+
+	private static int compareValues(Comparable<Object> v1, Comparable<Object> v2) {
+		if(v1 == v2) {
+			return 0;
+		}
+		if(v1 == null) {
+			return -1;
+		}
+		if(v2 == null) {
+			return 1;
+		}
+		return v1.compareTo(v2);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Comparable<Object>[] newValues(int size) {
+		return new Comparable[size];
+	}
+
+	static Date sentDate(Message message) throws MessagingException {
+		Date sent = message.getSentDate();
+		return sent != null ? sent : message.getReceivedDate();
+	}
+
+	static String fromMailbox(Message message) throws MessagingException {
+		Address[] from = message.getFrom();
+		if(from == null || from.length == 0) {
+			return null;
+		}
+		String address = from[0] instanceof InternetAddress ? ((InternetAddress) from[0]).getAddress() : from[0].toString();
+		if(address == null) {
+			return null;
+		}
+		int at = address.indexOf('@');
+		return upperCaseAscii(at >= 0 ? address.substring(0, at) : address);
+	}
+
+	/**
+	 * Extract the base subject as defined by RFC 5256, section 2.1, in upper case.
+	 *
+	 * @param subject the decoded subject, <code>null</code> is the same as empty
+	 * @return
+	 */
+	static String baseSubject(String subject) {
+		if(subject == null) {
+			return "";
+		}
+		String base = subject.replaceAll("\\s+", " ").trim();
+		while(true) {
+			base = removeAll(SUBJECT_TRAILER, base);
+			String previous;
+			do {
+				previous = base;
+				base = removeAll(SUBJECT_LEADER, base);
+				Matcher blob = SUBJECT_BLOB.matcher(base);
+				if(blob.find() && blob.end() < base.length()) {
+					base = base.substring(blob.end());
+				}
+			} while(!base.equals(previous));
+			Matcher fwd = SUBJECT_FWD.matcher(base);
+			if(!fwd.matches()) {
+				break;
+			}
+			base = fwd.group(1).trim();
+		}
+		return upperCaseAscii(base);
+	}
+
+	private static String removeAll(Pattern pattern, String text) {
+		String result = text;
+		String previous;
+		do {
+			previous = result;
+			result = pattern.matcher(result).replaceFirst("");
+		} while(!result.equals(previous));
+		return result;
+	}
+
+	private static String upperCaseAscii(String text) {
+		// the i;ascii-casemap collation of IMAP only maps ASCII letters
+		StringBuilder upper = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			upper.append(c >= 'a' && c <= 'z' ? (char) (c - 'a' + 'A') : c);
+		}
+		return upper.toString();
+	}
+
+	@FunctionalInterface
+	private interface Key {
+		Comparable<?> get(Message message) throws MessagingException;
+	}
+
+	private static class SortKey {
+		private final Key key;
+		private final String errorCode;
+		private final SortTerm sortTerm;
+		private final boolean reverse;
+		private final FetchProfile fetchProfile;
+
+		private SortKey(Key key, String errorCode, SortTerm sortTerm, boolean reverse, FetchProfile fetchProfile) {
+			this.key = key;
+			this.errorCode = errorCode;
+			this.sortTerm = sortTerm;
+			this.reverse = reverse;
+			this.fetchProfile = fetchProfile;
+		}
+
+		private SortKey reversed() {
+			return new SortKey(key, errorCode, sortTerm, !reverse, fetchProfile);
+		}
+
+		@SuppressWarnings("unchecked")
+		private Comparable<Object> extract(Message message) {
+			try {
+				return (Comparable<Object>) key.get(message);
+			} catch (MessagingException e) {
+				throw MailStoreService.buildError("sort:" + errorCode).withCause(e).build();
+			}
+		}
+	}
+
+	private static class Keyed {
+		private final Message message;
+		private final Comparable<Object>[] values;
+
+		private Keyed(Message message, Comparable<Object>[] values) {
+			this.message = message;
+			this.values = values;
+		}
+	}
+}
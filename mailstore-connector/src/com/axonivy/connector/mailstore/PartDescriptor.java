@@ -0,0 +1,254 @@
+package com.axonivy.connector.mailstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.ParseException;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Lightweight description of a part of a message: MIME type, disposition, file name, size and
+ * IMAP section number, with the descriptions of its children.
+ *
+ * The tree is built only from the structure of the message. For IMAP messages, this is the
+ * <code>BODYSTRUCTURE</code>, which the iterator fetches in bulk for filters on parts
+ * ({@link javax.mail.FetchProfile.Item#CONTENT_INFO}), so no body data is downloaded. Only multiparts
+ * and <code>message/rfc822</code> parts are entered; the content of other <code>message/*</code>
+ * parts (e.g. delivery status) is not read.
+ */
+public class PartDescriptor {
+	private static final String RFC822 = "message/rfc822";
+	private static final int FORMAT = 1;
+	private final String contentType;
+	private final String baseType;
+	private final String disposition;
+	private final String fileName;
+	private final int size;
+	private final String section;
+	private final boolean message;
+	private final List<PartDescriptor> children = new ArrayList<>();
+
+	private PartDescriptor(Part part, String section) throws MessagingException {
+		this.contentType = part.getContentType();
+		this.baseType = baseType(contentType);
+		this.disposition = part.getDisposition();
+		this.fileName = part.getFileName();
+		this.size = part.getSize();
+		this.section = section;
+		this.message = part instanceof Message;
+	}
+
+	private PartDescriptor(String contentType, String disposition, String fileName, int size, String section, boolean message) {
+		this.contentType = contentType;
+		this.baseType = baseType(contentType);
+		this.disposition = disposition;
+		this.fileName = fileName;
+		this.size = size;
+		this.section = section;
+		this.message = message;
+	}
+
+	/**
+	 * Describe a message and all its parts.
+	 *
+	 * @param message
+	 * @return
+	 */
+	public static PartDescriptor of(Message message) {
+		try {
+			return describe(message, "");
+		} catch (IOException | MessagingException e) {
+			throw MailStoreService.buildError("partdescriptor").withCause(e).build();
+		}
+	}
+
+	/**
+	 * Write the description and its children, e.g. to keep it in a {@link com.axonivy.connector.mailstore.cache.MessageCache}.
+	 *
+	 * @return
+	 */
+	byte[] toBytes() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(FORMAT);
+			write(out);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Read a description written by {@link #toBytes()}.
+	 *
+	 * @param bytes
+	 * @return the description or <code>null</code> if it was written in another format
+	 * @throws IOException
+	 */
+	static PartDescriptor fromBytes(byte[] bytes) throws IOException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readByte() == FORMAT ? read(in) : null;
+		}
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+		writeString(out, contentType);
+		writeString(out, disposition);
+		writeString(out, fileName);
+		out.writeInt(size);
+		out.writeUTF(section);
+		out.writeBoolean(message);
+		out.writeInt(children.size());
+		for (PartDescriptor child : children) {
+			child.write(out);
+		}
+	}
+
+	private static PartDescriptor read(DataInputStream in) throws IOException {
+		PartDescriptor descriptor = new PartDescriptor(readString(in), readString(in), readString(in), in.readInt(), in.readUTF(), in.readBoolean());
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			descriptor.children.add(read(in));
+		}
+		return descriptor;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if(value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static PartDescriptor describe(Part part, String section) throws MessagingException, IOException {
+		PartDescriptor descriptor = new PartDescriptor(part, section);
+		if(part.isMimeType("multipart/*")) {
+			Multipart multipart = (Multipart) part.getContent();
+			String prefix = section.isEmpty() ? "" : section + ".";
+			for (int i = 0; i < multipart.getCount(); i++) {
+				descriptor.children.add(describe(multipart.getBodyPart(i), prefix + (i + 1)));
+			}
+		}
+		else if(part.isMimeType(RFC822) && !descriptor.message) {
+			Object content = part.getContent();
+			if(content instanceof Message) {
+				// the nested message has the section of its part, its parts continue below it
+				descriptor.children.add(describe((Message) content, section));
+			}
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Get this description and the descriptions of all parts below in depth-first order.
+	 *
+	 * Like {@link MessageService#streamParts(Message, boolean)}, nested messages are
+	 * included as an own element.
+	 *
+	 * @param includeSubMessages also go into messages contained in the message?
+	 * @return
+	 */
+	public Stream<PartDescriptor> stream(boolean includeSubMessages) {
+		return stream(includeSubMessages, true);
+	}
+
+	private Stream<PartDescriptor> stream(boolean includeSubMessages, boolean root) {
+		if(message && !root && !includeSubMessages) {
+			return Stream.empty();
+		}
+		return Stream.concat(Stream.of(this), children.stream().flatMap(child -> child.stream(includeSubMessages, false)));
+	}
+
+	/**
+	 * Does the part have the given MIME type? Like {@link Part#isMimeType(String)}, an asterisk (*) as
+	 * sub-type acts as a wildcard.
+	 *
+	 * @param mimeType
+	 * @return
+	 */
+	public boolean isMimeType(String mimeType) {
+		try {
+			return new ContentType(contentType).match(mimeType);
+		} catch (ParseException e) {
+			return baseType.equalsIgnoreCase(baseType(mimeType));
+		}
+	}
+
+	/**
+	 * @return the full content type including parameters
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return the MIME type without parameters in lower case, e.g. <code>application/pdf</code>
+	 */
+	public String getMimeType() {
+		return baseType;
+	}
+
+	public String getDisposition() {
+		return disposition;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return size of the (transfer encoded) content in bytes or <code>-1</code> if unknown
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return IMAP section number, e.g. <code>2.1</code>, empty for the message itself
+	 */
+	public String getSection() {
+		return section;
+	}
+
+	/**
+	 * @return is this a (nested) message?
+	 */
+	public boolean isMessage() {
+		return message;
+	}
+
+	public List<PartDescriptor> getChildren() {
+		return Collections.unmodifiableList(children);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PartDescriptor[section: %s, type: %s, disposition: %s, fileName: %s, size: %d, children: %d]",
+				section, baseType, disposition, fileName, size, children.size());
+	}
+
+	private static String baseType(String contentType) {
+		if(contentType == null) {
+			return "";
+		}
+		return StringUtils.substringBefore(contentType, ";").trim().toLowerCase(Locale.ROOT);
+	}
+}
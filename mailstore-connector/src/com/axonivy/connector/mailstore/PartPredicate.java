@@ -0,0 +1,61 @@
+package com.axonivy.connector.mailstore;
+
+import java.util.function.Predicate;
+
+import javax.mail.Part;
+
+/**
+ * A {@link Predicate} on parts, which can also decide on a {@link PartDescriptor}.
+ *
+ * The part predicates of {@link MessageService} only read the MIME type, disposition or file name,
+ * so they can be evaluated on the structure of a message without reading its content. Predicates
+ * stay evaluable on descriptors when they are combined with {@link #and(Predicate)},
+ * {@link #or(Predicate)} and {@link #negate()}, as long as the other predicate can be evaluated as well.
+ */
+public class PartPredicate implements Predicate<Part> {
+	private final Predicate<Part> predicate;
+	private final Predicate<PartDescriptor> descriptorPredicate;
+
+	/**
+	 * @param predicate the predicate which decides about a part
+	 * @param descriptorPredicate the same decision on a descriptor, <code>null</code> if not possible
+	 */
+	PartPredicate(Predicate<Part> predicate, Predicate<PartDescriptor> descriptorPredicate) {
+		this.predicate = predicate;
+		this.descriptorPredicate = descriptorPredicate;
+	}
+
+	/**
+	 * Get the predicate on descriptors of a part predicate.
+	 *
+	 * @param predicate
+	 * @return the predicate or <code>null</code> if the predicate cannot decide on descriptors
+	 */
+	public static Predicate<PartDescriptor> descriptorPredicateOf(Predicate<? super Part> predicate) {
+		return predicate instanceof PartPredicate ? ((PartPredicate) predicate).descriptorPredicate : null;
+	}
+
+	@Override
+	public boolean test(Part part) {
+		return predicate.test(part);
+	}
+
+	@Override
+	public PartPredicate and(Predicate<? super Part> other) {
+		Predicate<PartDescriptor> otherDescriptor = descriptorPredicateOf(other);
+		return new PartPredicate(Predicate.super.and(other),
+				descriptorPredicate != null && otherDescriptor != null ? descriptorPredicate.and(otherDescriptor) : null);
+	}
+
+	@Override
+	public PartPredicate or(Predicate<? super Part> other) {
+		Predicate<PartDescriptor> otherDescriptor = descriptorPredicateOf(other);
+		return new PartPredicate(Predicate.super.or(other),
+				descriptorPredicate != null && otherDescriptor != null ? descriptorPredicate.or(otherDescriptor) : null);
+	}
+
+	@Override
+	public PartPredicate negate() {
+		return new PartPredicate(Predicate.super.negate(), descriptorPredicate != null ? descriptorPredicate.negate() : null);
+	}
+}
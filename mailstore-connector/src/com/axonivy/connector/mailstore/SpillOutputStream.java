@@ -0,0 +1,102 @@
+package com.axonivy.connector.mailstore;
+
+import static com.axonivy.connector.mailstore.MailStoreService.LOG;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Collects data in memory up to a threshold and continues in a temporary file above it.
+ *
+ * The written data is read with {@link #toInputStream()}. Data kept in memory is not copied
+ * again and the temporary file is deleted when the returned stream is closed.
+ */
+class SpillOutputStream extends OutputStream {
+	private final int threshold;
+	private Buffer memory = new Buffer();
+	private Path file;
+	private OutputStream fileStream;
+
+	/**
+	 * @param threshold maximum number of bytes kept in memory
+	 */
+	SpillOutputStream(int threshold) {
+		this.threshold = Math.max(0, threshold);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		target(1).write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		target(len).write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if(fileStream != null) {
+			fileStream.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(fileStream != null) {
+			fileStream.close();
+		}
+	}
+
+	/**
+	 * Get the written data. The stream is closed.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	InputStream toInputStream() throws IOException {
+		close();
+		if(file == null) {
+			return memory.toInputStream();
+		}
+		return Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE);
+	}
+
+	/**
+	 * Delete the temporary file, if the data is not needed.
+	 */
+	void discard() {
+		try {
+			close();
+			if(file != null) {
+				Files.deleteIfExists(file);
+			}
+		} catch (IOException e) {
+			LOG.info("Ignoring exception while deleting temporary file {0}.", e, file);
+		}
+	}
+
+	private OutputStream target(int len) throws IOException {
+		if(fileStream == null && memory.size() + (long) len > threshold) {
+			file = Files.createTempFile("mailstore-", ".eml");
+			fileStream = new BufferedOutputStream(Files.newOutputStream(file));
+			memory.writeTo(fileStream);
+			memory = null;
+		}
+		return fileStream != null ? fileStream : memory;
+	}
+
+	private static class Buffer extends ByteArrayOutputStream {
+		private InputStream toInputStream() {
+			// the buffer is not copied
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.axonivy.connector.mailstore;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.Iterator;
+
+import javax.mail.MessagingException;
+import javax.mail.Part;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.MimeUtility;
+import javax.mail.internet.ParseException;
+
+/**
+ * Reads the texts of several parts one after the other, separated by a delimiter.
+ *
+ * Only the current part is open. Its content is decoded while it is read, so a text is never
+ * held completely in memory. Reading stops at a maximum number of characters and the current
+ * part is closed without reading the rest of it.
+ */
+class TextPartReader extends Reader {
+	private static final String DEFAULT_CHARSET = "us-ascii";
+	private final Iterator<Part> parts;
+	private final String delimiter;
+	private long remaining;
+	private Reader current;
+	private boolean first = true;
+	private int delimiterPosition = -1;
+
+	/**
+	 * @param parts the text parts
+	 * @param delimiter written between the texts of two parts
+	 * @param maxChars maximum number of characters including delimiters
+	 */
+	TextPartReader(Iterator<Part> parts, String delimiter, long maxChars) {
+		this.parts = parts;
+		this.delimiter = delimiter != null ? delimiter : "";
+		this.remaining = Math.max(0, maxChars);
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if(len == 0) {
+			return 0;
+		}
+		while(remaining > 0) {
+			int max = (int) Math.min(len, remaining);
+			if(delimiterPosition >= 0) {
+				int count = Math.min(max, delimiter.length() - delimiterPosition);
+				delimiter.getChars(delimiterPosition, delimiterPosition + count, cbuf, off);
+				delimiterPosition += count;
+				if(delimiterPosition >= delimiter.length()) {
+					delimiterPosition = -1;
+				}
+				return consumed(count);
+			}
+			if(current != null) {
+				int count = current.read(cbuf, off, max);
+				if(count > 0) {
+					return consumed(count);
+				}
+				if(count < 0) {
+					closeCurrent();
+				}
+				continue;
+			}
+			if(!parts.hasNext()) {
+				break;
+			}
+			current = open(parts.next());
+			if(!first && !delimiter.isEmpty()) {
+				delimiterPosition = 0;
+			}
+			first = false;
+		}
+		closeCurrent();
+		return -1;
+	}
+
+	@Override
+	public void close() throws IOException {
+		remaining = 0;
+		closeCurrent();
+	}
+
+	private int consumed(int count) throws IOException {
+		remaining -= count;
+		if(remaining <= 0) {
+			// the rest of the part is not needed
+			closeCurrent();
+		}
+		return count;
+	}
+
+	private void closeCurrent() throws IOException {
+		if(current != null) {
+			Reader reader = current;
+			current = null;
+			reader.close();
+		}
+	}
+
+	private static Reader open(Part part) throws IOException {
+		try {
+			return new InputStreamReader(part.getInputStream(), charsetOf(part));
+		} catch (MessagingException e) {
+			throw new IOException("Could not read text part.", e);
+		}
+	}
+
+	/**
+	 * Get the charset of a text part like the text content handler of JavaMail.
+	 */
+	private static Charset charsetOf(Part part) throws MessagingException {
+		String charset = null;
+		try {
+			charset = new ContentType(part.getContentType()).getParameter("charset");
+		} catch (ParseException e) {
+			// use the default
+		}
+		String javaCharset = MimeUtility.javaCharset(charset != null ? charset : DEFAULT_CHARSET);
+		try {
+			if(Charset.isSupported(javaCharset)) {
+				return Charset.forName(javaCharset);
+			}
+		} catch (IllegalCharsetNameException e) {
+			// use the default
+		}
+		return Charset.forName(MimeUtility.getDefaultJavaCharset());
+	}
+}
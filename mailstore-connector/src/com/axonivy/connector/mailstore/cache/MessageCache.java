@@ -0,0 +1,315 @@
+package com.axonivy.connector.mailstore.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+
+import ch.ivyteam.ivy.environment.Ivy;
+import ch.ivyteam.log.Logger;
+
+/**
+ * Keeps the raw data and the structure of messages in a local directory.
+ * <p>
+ * Entries are identified by store, folder, UIDVALIDITY and UID, so an entry never belongs to
+ * another message, even if the folder was recreated. The time of the last use is the modification
+ * time of the file. Entries which were not used for the maximum age are removed, and when the
+ * cache grows above its maximum size, the least recently used entries are removed until it
+ * is below 90 % of the maximum size again.
+ * </p>
+ * <p>
+ * The directory may be shared by several iterators, files are replaced atomically.
+ * </p>
+ */
+public class MessageCache {
+	private static final Logger LOG = Ivy.log();
+	private static final String RAW_SUFFIX = ".eml";
+	private static final String STRUCTURE_SUFFIX = ".structure";
+	private static final Duration EVICT_INTERVAL = Duration.ofMinutes(1);
+	private final Path directory;
+	private final long maxSize;
+	private final Duration maxAge;
+	private long size = -1;
+	private long nextEviction;
+
+	/**
+	 * @param directory directory for the message files, it is created if it does not exist
+	 * @param maxSize maximum size of all files in bytes, <code>0</code> for no limit
+	 * @param maxAge entries not used for this time are removed, <code>null</code> for no limit
+	 */
+	public MessageCache(Path directory, long maxSize, Duration maxAge) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Get a cached message.
+	 *
+	 * @param storeName
+	 * @param folderName
+	 * @param uidValidity
+	 * @param uid
+	 * @return the file with the raw message or <code>null</code> if the message is not cached
+	 * @throws IOException
+	 */
+	public Path get(String storeName, String folderName, long uidValidity, long uid) throws IOException {
+		Path file = file(storeName, folderName, uidValidity, uid, RAW_SUFFIX);
+		return use(file) ? file : null;
+	}
+
+	/**
+	 * Download a message into the cache.
+	 *
+	 * @param storeName
+	 * @param folderName
+	 * @param uidValidity
+	 * @param uid
+	 * @param message
+	 * @return the file with the raw message
+	 * @throws IOException
+	 * @throws MessagingException
+	 */
+	public Path put(String storeName, String folderName, long uidValidity, long uid, Message message) throws IOException, MessagingException {
+		Path file = file(storeName, folderName, uidValidity, uid, RAW_SUFFIX);
+		write(file, message::writeTo);
+		return file;
+	}
+
+	/**
+	 * Get the cached structure of a message.
+	 *
+	 * @param storeName
+	 * @param folderName
+	 * @param uidValidity
+	 * @param uid
+	 * @return the structure or <code>null</code> if it is not cached
+	 * @throws IOException
+	 */
+	public byte[] getStructure(String storeName, String folderName, long uidValidity, long uid) throws IOException {
+		Path file = file(storeName, folderName, uidValidity, uid, STRUCTURE_SUFFIX);
+		if(!use(file)) {
+			return null;
+		}
+		try {
+			return Files.readAllBytes(file);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Keep the structure of a message, e.g. the <code>BODYSTRUCTURE</code> of an IMAP message.
+	 *
+	 * @param storeName
+	 * @param folderName
+	 * @param uidValidity
+	 * @param uid
+	 * @param structure
+	 * @throws IOException
+	 */
+	public void putStructure(String storeName, String folderName, long uidValidity, long uid, byte[] structure) throws IOException {
+		try {
+			write(file(storeName, folderName, uidValidity, uid, STRUCTURE_SUFFIX), out -> out.write(structure));
+		} catch (MessagingException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Remove a message and its structure from the cache, e.g. when it was handled.
+	 *
+	 * @param storeName
+	 * @param folderName
+	 * @param uidValidity
+	 * @param uid
+	 * @throws IOException
+	 */
+	public void remove(String storeName, String folderName, long uidValidity, long uid) throws IOException {
+		delete(file(storeName, folderName, uidValidity, uid, RAW_SUFFIX));
+		delete(file(storeName, folderName, uidValidity, uid, STRUCTURE_SUFFIX));
+	}
+
+	/**
+	 * Remove expired entries and the least recently used entries above the maximum size.
+	 *
+	 * This is done automatically when entries are added.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void evict() throws IOException {
+		long now = System.currentTimeMillis();
+		nextEviction = now + EVICT_INTERVAL.toMillis();
+		List<Entry> entries = entries();
+		long total = 0;
+		List<Entry> kept = new ArrayList<>();
+		for (Entry entry : entries) {
+			if(isExpired(entry.lastUsed, now)) {
+				deleteQuietly(entry.file);
+			}
+			else {
+				kept.add(entry);
+				total += entry.size;
+			}
+		}
+		if(maxSize > 0 && total > maxSize) {
+			long target = maxSize / 10 * 9;
+			kept.sort(Comparator.comparing(entry -> entry.lastUsed));
+			for (Entry entry : kept) {
+				if(total <= target) {
+					break;
+				}
+				if(deleteQuietly(entry.file)) {
+					total -= entry.size;
+				}
+			}
+		}
+		size = total;
+	}
+
+	/**
+	 * Mark a file as used now.
+	 *
+	 * @return does the file exist and is not expired?
+	 */
+	private boolean use(Path file) throws IOException {
+		try {
+			FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+			if(isExpired(Files.getLastModifiedTime(file), now.toMillis())) {
+				delete(file);
+				return false;
+			}
+			Files.setLastModifiedTime(file, now);
+			return true;
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	private void write(Path file, Writer writer) throws IOException, MessagingException {
+		Files.createDirectories(directory);
+		Path tmp = Files.createTempFile(directory, "message-", ".tmp");
+		try {
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+				writer.write(out);
+			}
+			long written = Files.size(tmp);
+			try {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+			added(written);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private synchronized void added(long bytes) throws IOException {
+		if(size < 0) {
+			// the first write scans the directory, which was possibly filled by earlier runs
+			evict();
+			return;
+		}
+		size += bytes;
+		if((maxSize > 0 && size > maxSize) || System.currentTimeMillis() - nextEviction >= 0) {
+			evict();
+		}
+	}
+
+	private List<Entry> entries() throws IOException {
+		if(!Files.isDirectory(directory)) {
+			return List.of();
+		}
+		List<Entry> entries = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				String name = file.getFileName().toString();
+				if(name.endsWith(RAW_SUFFIX) || name.endsWith(STRUCTURE_SUFFIX)) {
+					try {
+						BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+						entries.add(new Entry(file, attributes.size(), attributes.lastModifiedTime()));
+					} catch (NoSuchFileException e) {
+						// removed by another iterator
+					}
+				}
+			}
+		}
+		return entries;
+	}
+
+	private boolean isExpired(FileTime lastUsed, long now) {
+		return maxAge != null && now - lastUsed.toMillis() > maxAge.toMillis();
+	}
+
+	private void delete(Path file) throws IOException {
+		long deleted = Files.exists(file) ? Files.size(file) : 0;
+		if(Files.deleteIfExists(file)) {
+			synchronized (this) {
+				if(size >= 0) {
+					size = Math.max(0, size - deleted);
+				}
+			}
+		}
+	}
+
+	private static boolean deleteQuietly(Path file) {
+		try {
+			return Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// e.g. still open by a handler on Windows
+			LOG.debug("Could not remove cached message {0}: {1}", file, e.getMessage());
+			return false;
+		}
+	}
+
+	private Path file(String storeName, String folderName, long uidValidity, long uid, String suffix) {
+		// folder names may contain separators and characters which are not allowed in file names
+		// and may be longer than a file name, the digest has a fixed length
+		return directory.resolve(digest(storeName + "/" + folderName) + "-" + uidValidity + "-" + uid + suffix);
+	}
+
+	private static String digest(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available.", e);
+		}
+	}
+
+	@FunctionalInterface
+	private interface Writer {
+		void write(OutputStream out) throws IOException, MessagingException;
+	}
+
+	private static class Entry {
+		private final Path file;
+		private final long size;
+		private final FileTime lastUsed;
+
+		private Entry(Path file, long size, FileTime lastUsed) {
+			this.file = file;
+			this.size = size;
+			this.lastUsed = lastUsed;
+		}
+	}
+}
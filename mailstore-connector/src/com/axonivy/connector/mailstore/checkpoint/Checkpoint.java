@@ -0,0 +1,35 @@
+package com.axonivy.connector.mailstore.checkpoint;
+
+/**
+ * Position of an incremental {@link com.axonivy.connector.mailstore.MailStoreService.MessageIterator} in a folder.
+ * <p>
+ * All messages up to and including {@link #getLastUid()} were processed. The position
+ * is only valid as long as the UIDVALIDITY of the folder does not change.
+ * </p>
+ */
+public class Checkpoint {
+	private final long uidValidity;
+	private final long lastUid;
+
+	/**
+	 * @param uidValidity UIDVALIDITY of the folder
+	 * @param lastUid highest processed UID
+	 */
+	public Checkpoint(long uidValidity, long lastUid) {
+		this.uidValidity = uidValidity;
+		this.lastUid = lastUid;
+	}
+
+	public long getUidValidity() {
+		return uidValidity;
+	}
+
+	public long getLastUid() {
+		return lastUid;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Checkpoint[uidValidity: %d, lastUid: %d]", uidValidity, lastUid);
+	}
+}
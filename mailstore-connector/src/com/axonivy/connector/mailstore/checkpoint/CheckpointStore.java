@@ -0,0 +1,29 @@
+package com.axonivy.connector.mailstore.checkpoint;
+
+/**
+ * The {@code CheckpointStore} interface persists the {@link Checkpoint}s of
+ * incremental message iterators.
+ * <p>
+ * Implementations must be safe to be used by multiple threads.
+ * </p>
+ */
+public interface CheckpointStore {
+
+	/**
+	 * Loads the checkpoint of a folder.
+	 *
+	 * @param storeName the name of the store
+	 * @param folderName the name of the folder
+	 * @return the checkpoint or <code>null</code> if the folder was never processed
+	 */
+	Checkpoint load(String storeName, String folderName);
+
+	/**
+	 * Saves the checkpoint of a folder.
+	 *
+	 * @param storeName the name of the store
+	 * @param folderName the name of the folder
+	 * @param checkpoint the new checkpoint
+	 */
+	void save(String storeName, String folderName, Checkpoint checkpoint);
+}
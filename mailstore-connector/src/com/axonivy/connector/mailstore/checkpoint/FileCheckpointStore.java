@@ -0,0 +1,96 @@
+package com.axonivy.connector.mailstore.checkpoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.axonivy.connector.mailstore.MailStoreService;
+
+/**
+ * Stores checkpoints as small property files in a directory.
+ * <p>
+ * There is one file per store and folder, named by a digest of both. Files are replaced atomically,
+ * so a crash while saving leaves the previous checkpoint intact.
+ * </p>
+ */
+public class FileCheckpointStore implements CheckpointStore {
+	private static final String UID_VALIDITY = "uidValidity";
+	private static final String LAST_UID = "lastUid";
+	private final Path directory;
+
+	/**
+	 * @param directory directory for the checkpoint files, it is created if it does not exist
+	 */
+	public FileCheckpointStore(Path directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public synchronized Checkpoint load(String storeName, String folderName) {
+		Path file = file(storeName, folderName);
+		if(!Files.exists(file)) {
+			return null;
+		}
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		} catch (IOException e) {
+			throw MailStoreService.buildError("checkpoint:load").withCause(e).build();
+		}
+		return new Checkpoint(
+				NumberUtils.toLong(properties.getProperty(UID_VALIDITY), -1),
+				NumberUtils.toLong(properties.getProperty(LAST_UID), 0));
+	}
+
+	@Override
+	public synchronized void save(String storeName, String folderName, Checkpoint checkpoint) {
+		Path file = file(storeName, folderName);
+		Properties properties = new Properties();
+		properties.setProperty(UID_VALIDITY, Long.toString(checkpoint.getUidValidity()));
+		properties.setProperty(LAST_UID, Long.toString(checkpoint.getLastUid()));
+		try {
+			Files.createDirectories(directory);
+			Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try {
+				try (OutputStream out = Files.newOutputStream(tmp)) {
+					properties.store(out, storeName + " " + folderName);
+				}
+				try {
+					Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (IOException e) {
+			throw MailStoreService.buildError("checkpoint:save").withCause(e).build();
+		}
+	}
+
+	private Path file(String storeName, String folderName) {
+		// folder names may contain separators and characters which are not allowed in file names
+		// and may be longer than a file name, the digest has a fixed length
+		return directory.resolve(digest(storeName + "/" + folderName) + ".properties");
+	}
+
+	private static String digest(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available.", e);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.axonivy.connector.mailstore.checkpoint;
+
+import ch.ivyteam.ivy.environment.Ivy;
+
+/**
+ * Stores checkpoints in the business data repository of the Ivy engine.
+ * <p>
+ * The checkpoints are shared by all nodes of a cluster.
+ * </p>
+ */
+public class IvyCheckpointStore implements CheckpointStore {
+	private static final String KEY_FIELD = "key";
+
+	@Override
+	public Checkpoint load(String storeName, String folderName) {
+		CheckpointData data = find(key(storeName, folderName));
+		return data != null ? new Checkpoint(data.getUidValidity(), data.getLastUid()) : null;
+	}
+
+	@Override
+	public synchronized void save(String storeName, String folderName, Checkpoint checkpoint) {
+		String key = key(storeName, folderName);
+		CheckpointData data = find(key);
+		if(data == null) {
+			data = new CheckpointData();
+			data.setKey(key);
+		}
+		data.setUidValidity(checkpoint.getUidValidity());
+		data.setLastUid(checkpoint.getLastUid());
+		Ivy.repo().save(data);
+	}
+
+	private static CheckpointData find(String key) {
+		// the repository compares case insensitive, but folder names are case sensitive
+		return Ivy.repo().search(CheckpointData.class)
+				.textField(KEY_FIELD).isEqualToIgnoringCase(key)
+				.execute()
+				.getAll()
+				.stream()
+				.filter(data -> key.equals(data.getKey()))
+				.findFirst()
+				.orElse(null);
+	}
+
+	private static String key(String storeName, String folderName) {
+		return storeName + "/" + folderName;
+	}
+
+	/**
+	 * Business data of a checkpoint.
+	 */
+	public static class CheckpointData {
+		private String key;
+		private long uidValidity;
+		private long lastUid;
+
+		public String getKey() {
+			return key;
+		}
+
+		public void setKey(String key) {
+			this.key = key;
+		}
+
+		public long getUidValidity() {
+			return uidValidity;
+		}
+
+		public void setUidValidity(long uidValidity) {
+			this.uidValidity = uidValidity;
+		}
+
+		public long getLastUid() {
+			return lastUid;
+		}
+
+		public void setLastUid(long lastUid) {
+			this.lastUid = lastUid;
+		}
+	}
+}
@@ -4,15 +4,17 @@ package com.axonivy.connector.mailstore.enums;
  * Enum representing the method of moving emails in an IMAP mailbox.
  *
  * <p>
- * There are two supported methods:
+ * There are three supported methods:
  * <ul>
  *   <li>{@link #APPEND} - Use the {@code appendMessages} function to move emails.</li>
  *   <li>{@link #COPY} - Use the {@code copyMessages} function to move emails.</li>
+ *   <li>{@link #MOVE} - Use the IMAP {@code MOVE} command to move emails which are deleted,
+ *   falls back to copy and {@code UID EXPUNGE} if the server does not support it.</li>
  * </ul>
  * </p>
  */
 public enum MailMovingMethod {
-	APPEND, COPY;
+	APPEND, COPY, MOVE;
 
 	/**
 	 * Parses the input string and returns the corresponding {@code MailMovingMethod}.
@@ -36,4 +36,16 @@ public interface UserPasswordProvider {
      * @return the password for the specified store
      */
 	String getPassword(String storeName);
+
+	/**
+	 * Called when the server rejected the credentials of the store.
+	 * <p>
+	 * Providers which cache credentials (e.g. access tokens) should drop them here,
+	 * so the next connection gets new ones.
+	 * </p>
+	 *
+	 * @param storeName the name of the store
+	 */
+	default void authenticationFailed(String storeName) {
+	}
 }
@@ -0,0 +1,289 @@
+package com.axonivy.connector.mailstore.provider.oauth;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.ivyteam.ivy.environment.Ivy;
+import ch.ivyteam.log.Logger;
+
+/**
+ * Cache for OAuth2 access tokens.
+ * <p>
+ * Tokens are cached until shortly before they expire according to the <code>expires_in</code>
+ * value of the token response. When a cached token comes close to its expiry, it is refreshed in the
+ * background while callers still get the cached token. Concurrent callers which find no valid token
+ * share a single token request.
+ * </p>
+ */
+public class AccessTokenCache {
+	private static final Logger LOG = Ivy.log();
+	private static final AccessTokenCache INSTANCE = new AccessTokenCache();
+	private static final long MAX_EXPIRY_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	private static final long MAX_REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private final Map<String, AccessToken> tokens = new ConcurrentHashMap<>();
+	private final Map<String, CompletableFuture<AccessToken>> inFlight = new ConcurrentHashMap<>();
+	private final ExecutorService refresher = Executors.newThreadPerTaskExecutor(
+			Thread.ofVirtual().name("mailstore-token-refresh-", 0).factory());
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong fetches = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong fetchNanos = new AtomicLong();
+	private final AtomicLong maxFetchNanos = new AtomicLong();
+
+	public static AccessTokenCache get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Get a valid access token.
+	 *
+	 * @param key identifies the token (store, tenant, application, scope...)
+	 * @param requestFactory is called on the calling thread, when a token must be requested. The returned
+	 * request might be executed on another thread, so it must not depend on the Ivy context.
+	 * @return
+	 */
+	public String getToken(String key, TokenRequestFactory requestFactory) {
+		long now = System.currentTimeMillis();
+		AccessToken token = tokens.get(key);
+		if(token != null && !token.isExpired(now)) {
+			hits.incrementAndGet();
+			if(token.needsRefresh(now)) {
+				refreshAsync(key, requestFactory);
+			}
+			return token.getValue();
+		}
+		misses.incrementAndGet();
+		return awaitFetch(key, requestFactory).getValue();
+	}
+
+	/**
+	 * Remove a token from the cache, e.g. after it was rejected by the server.
+	 *
+	 * @param key
+	 */
+	public void invalidate(String key) {
+		tokens.remove(key);
+	}
+
+	/**
+	 * @return the current statistics of the cache
+	 */
+	public Statistics statistics() {
+		return new Statistics(hits.get(), misses.get(), refreshes.get(), fetches.get(), failures.get(),
+				TimeUnit.NANOSECONDS.toMillis(fetchNanos.get()), TimeUnit.NANOSECONDS.toMillis(maxFetchNanos.get()));
+	}
+
+	private AccessToken awaitFetch(String key, TokenRequestFactory requestFactory) {
+		CompletableFuture<AccessToken> created = new CompletableFuture<>();
+		CompletableFuture<AccessToken> running = inFlight.putIfAbsent(key, created);
+		if(running == null) {
+			running = created;
+			Callable<AccessToken> request = prepare(key, requestFactory, created);
+			if(request != null) {
+				fetch(key, request, created);
+			}
+		}
+		try {
+			return running.join();
+		} catch (CompletionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private void refreshAsync(String key, TokenRequestFactory requestFactory) {
+		CompletableFuture<AccessToken> created = new CompletableFuture<>();
+		if(inFlight.putIfAbsent(key, created) == null) {
+			Callable<AccessToken> request = prepare(key, requestFactory, created);
+			if(request != null) {
+				refreshes.incrementAndGet();
+				LOG.debug("[AccessTokenCache] Refreshing token {0} in background.", key);
+				refresher.execute(() -> fetch(key, request, created));
+			}
+			else {
+				LOG.warn("[AccessTokenCache] Could not prepare refresh of token {0}, using cached token.", key);
+			}
+		}
+	}
+
+	private Callable<AccessToken> prepare(String key, TokenRequestFactory requestFactory, CompletableFuture<AccessToken> future) {
+		try {
+			return requestFactory.prepare();
+		} catch (RuntimeException e) {
+			failures.incrementAndGet();
+			inFlight.remove(key, future);
+			future.completeExceptionally(e);
+			return null;
+		}
+	}
+
+	private void fetch(String key, Callable<AccessToken> request, CompletableFuture<AccessToken> future) {
+		long start = System.nanoTime();
+		try {
+			AccessToken token = request.call();
+			if(token.isCacheable()) {
+				tokens.put(key, token);
+			}
+			else {
+				tokens.remove(key);
+			}
+			future.complete(token);
+		} catch (Exception e) {
+			failures.incrementAndGet();
+			LOG.warn("[AccessTokenCache] Fetching token {0} failed.", e, key);
+			future.completeExceptionally(e);
+		} finally {
+			long duration = System.nanoTime() - start;
+			fetches.incrementAndGet();
+			fetchNanos.addAndGet(duration);
+			maxFetchNanos.accumulateAndGet(duration, Math::max);
+			inFlight.remove(key, future);
+		}
+	}
+
+	/**
+	 * Prepares a token request on the calling thread.
+	 */
+	@FunctionalInterface
+	public interface TokenRequestFactory {
+		Callable<AccessToken> prepare();
+	}
+
+	/**
+	 * An access token and its lifetime.
+	 */
+	public static class AccessToken {
+		private final String value;
+		private final long expiresAt;
+		private final long refreshAt;
+		private final boolean cacheable;
+
+		/**
+		 * @param value the token
+		 * @param expiresInSeconds lifetime of the token as returned by the token endpoint,
+		 * a token without lifetime (<code>&lt;= 0</code>) is not cached
+		 */
+		public AccessToken(String value, long expiresInSeconds) {
+			long now = System.currentTimeMillis();
+			long lifetime = TimeUnit.SECONDS.toMillis(Math.max(0, expiresInSeconds));
+			this.value = value;
+			this.expiresAt = now + lifetime - Math.min(MAX_EXPIRY_MARGIN_MILLIS, lifetime / 10);
+			this.refreshAt = expiresAt - Math.min(MAX_REFRESH_AHEAD_MILLIS, lifetime / 4);
+			this.cacheable = expiresInSeconds > 0;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		private boolean isCacheable() {
+			return cacheable;
+		}
+
+		private boolean isExpired(long now) {
+			return now >= expiresAt;
+		}
+
+		private boolean needsRefresh(long now) {
+			return now >= refreshAt;
+		}
+	}
+
+	/**
+	 * Statistics of the token cache.
+	 */
+	public static class Statistics {
+		private final long hits;
+		private final long misses;
+		private final long refreshes;
+		private final long fetches;
+		private final long failures;
+		private final long totalFetchMillis;
+		private final long maxFetchMillis;
+
+		private Statistics(long hits, long misses, long refreshes, long fetches, long failures, long totalFetchMillis, long maxFetchMillis) {
+			this.hits = hits;
+			this.misses = misses;
+			this.refreshes = refreshes;
+			this.fetches = fetches;
+			this.failures = failures;
+			this.totalFetchMillis = totalFetchMillis;
+			this.maxFetchMillis = maxFetchMillis;
+		}
+
+		/**
+		 * @return number of requests served by a cached token
+		 */
+		public long getHits() {
+			return hits;
+		}
+
+		/**
+		 * @return number of requests which had to wait for a token request
+		 */
+		public long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * @return number of background refreshes started
+		 */
+		public long getRefreshes() {
+			return refreshes;
+		}
+
+		/**
+		 * @return number of token requests sent
+		 */
+		public long getFetches() {
+			return fetches;
+		}
+
+		/**
+		 * @return number of failed token requests
+		 */
+		public long getFailures() {
+			return failures;
+		}
+
+		/**
+		 * @return total time spent in token requests
+		 */
+		public long getTotalFetchMillis() {
+			return totalFetchMillis;
+		}
+
+		/**
+		 * @return average time of a token request
+		 */
+		public long getAverageFetchMillis() {
+			return fetches > 0 ? totalFetchMillis / fetches : 0;
+		}
+
+		/**
+		 * @return longest time of a token request
+		 */
+		public long getMaxFetchMillis() {
+			return maxFetchMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Statistics[hits: %d, misses: %d, refreshes: %d, fetches: %d, failures: %d, averageFetchMillis: %d, maxFetchMillis: %d]",
+					hits, misses, refreshes, fetches, failures, getAverageFetchMillis(), maxFetchMillis);
+		}
+	}
+}
@@ -2,16 +2,20 @@ package com.axonivy.connector.mailstore.provider.oauth;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
 
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 
 import com.axonivy.connector.mailstore.MailStoreService;
 import com.axonivy.connector.mailstore.provider.UserPasswordProvider;
+import com.axonivy.connector.mailstore.provider.oauth.AccessTokenCache.AccessToken;
 
 import ch.ivyteam.ivy.environment.Ivy;
 import ch.ivyteam.log.Logger;
@@ -53,6 +57,7 @@ public class AzureOauth2UserPasswordProvider implements UserPasswordProvider {
     
 	public static interface ResponseProperty {
 		String ACCESS_TOKEN = "access_token";
+		String EXPIRES_IN = "expires_in";
 	}
 	
     /**
@@ -70,6 +75,10 @@ public class AzureOauth2UserPasswordProvider implements UserPasswordProvider {
 
     /**
      * Retrieves the password associated with the specified store name.
+     * <p>
+     * The password is an access token, which is cached in the {@link AccessTokenCache}
+     * until shortly before it expires.
+     * </p>
      *
      * @param storeName the name of the store
      * @return the password for the specified store
@@ -78,7 +87,28 @@ public class AzureOauth2UserPasswordProvider implements UserPasswordProvider {
 	public String getPassword(String storeName) {
 		LOG.debug("[AzureOauth2UserPasswordProvider] Retrieving password for store: ''{0}''.", storeName);
 
-		return getToken(storeName);
+		return AccessTokenCache.get().getToken(cacheKey(storeName), () -> prepareTokenRequest(storeName));
+	}
+
+	/**
+	 * Removes the cached access token of the store, so the next connection requests a new one.
+	 *
+	 * @param storeName the name of the store
+	 */
+	@Override
+	public void authenticationFailed(String storeName) {
+		LOG.info("[AzureOauth2UserPasswordProvider] Access token of store ''{0}'' was rejected, removing it from the cache.", storeName);
+
+		AccessTokenCache.get().invalidate(cacheKey(storeName));
+	}
+
+	private String cacheKey(String storeName) {
+		return String.join("|", storeName,
+				MailStoreService.getVar(storeName, TENANT_ID),
+				MailStoreService.getVar(storeName, APP_ID),
+				MailStoreService.getVar(storeName, SCOPE),
+				MailStoreService.getVar(storeName, GRANT_TYPE),
+				MailStoreService.getVar(storeName, USER_VAR));
 	}
 	
 	private Form buildForm(String storeName) {
@@ -101,42 +131,57 @@ public class AzureOauth2UserPasswordProvider implements UserPasswordProvider {
 		return form;
 	}
 	
-	private Response sendTokenRequest(String tenantId, Form form) {
+	private Invocation buildTokenRequest(String tenantId, Form form) {
 		return Ivy.rest()
 				.client(REST_CLIENT)
 				.path(tenantId)
 				.path(TOKEN_PATH).request()
 				.header(CONTENT_TYPE_HEADER, CONTENT_TYPE_VALUE)
-				.post(Entity.form(form));
+				.buildPost(Entity.form(form));
 	}
 	
-	private String getToken(String storeName) {
+	// the request is built in the Ivy context of the caller, but might be sent from a background refresh
+	private Callable<AccessToken> prepareTokenRequest(String storeName) {
 		Form form = buildForm(storeName);
 		String tenantId = MailStoreService.getVar(storeName, TENANT_ID);
+		Invocation request = buildTokenRequest(tenantId, form);
 
-		Response response = sendTokenRequest(tenantId, form);
+		return () -> readToken(request.invoke());
+	}
 
+	private AccessToken readToken(Response response) {
 		if (null == response) {
 			final String nullResponseMessage = "[AzureOauth2UserPasswordProvider] response cannot be null";
 			LOG.error(nullResponseMessage);
 			throw MailStoreService.buildError("getToken").withMessage(nullResponseMessage).build();
 		}
 
-		String accessToken = extractToken(response);
+		Map<String, Object> values = readEntity(response);
+		String accessToken = extractToken(values);
 
 		if (StringUtils.isEmpty(accessToken)) {
 			throw new IllegalStateException("Failed to read 'access_token' from " + response);
 		}
 
-		return accessToken;
+		return new AccessToken(accessToken, extractExpiresIn(values));
 	}
 
 	// get response entity from response
-	private String extractToken(Response response) {
+	private Map<String, Object> readEntity(Response response) {
 		GenericType<Map<String, Object>> map = new GenericType<>(Map.class);
-		Map<String, Object> values = response.readEntity(map);
-		
-		return Optional.ofNullable(values).map(value -> values.get(ResponseProperty.ACCESS_TOKEN).toString()).orElse(null); 
+		return response.readEntity(map);
+	}
+
+	private String extractToken(Map<String, Object> values) {
+		return Optional.ofNullable(values).map(value -> values.get(ResponseProperty.ACCESS_TOKEN)).map(Object::toString).orElse(null);
+	}
+
+	private long extractExpiresIn(Map<String, Object> values) {
+		Object expiresIn = values.get(ResponseProperty.EXPIRES_IN);
+		if (expiresIn instanceof Number) {
+			return ((Number) expiresIn).longValue();
+		}
+		return expiresIn != null ? NumberUtils.toLong(expiresIn.toString(), 0) : 0;
 	}
 	
 	private static enum GrantType {